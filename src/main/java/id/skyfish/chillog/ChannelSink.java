@@ -0,0 +1,114 @@
+package id.skyfish.chillog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes records to a {@link GatheringByteChannel}, such as a {@link FileChannel} or a blocking
+ * {@link java.nio.channels.SocketChannel}.
+ * <p>
+ * The header and body of a record are handed to the channel together with a gathering write, so neither is copied
+ * into a combined buffer. Records are not buffered in user space, so {@link #flush()} has nothing to do. Records that
+ * cannot be written are dropped and counted.
+ */
+public final class ChannelSink implements ChillogSink, Closeable {
+
+    private final GatheringByteChannel channel;
+
+    /**
+     * Reused for every gathering write, under the lock of this sink.
+     */
+    private final ByteBuffer[] slices = new ByteBuffer[2];
+
+    /**
+     * The last header written, and the view of it that this sink writes from, under the lock of this sink.
+     */
+    private ByteBuffer header;
+    private ByteBuffer headerView;
+
+    private final AtomicLong droppedRecords = new AtomicLong();
+
+    /**
+     * @param channel The channel to write to. It must be in blocking mode.
+     */
+    public ChannelSink(GatheringByteChannel channel) {
+        if (channel == null) {
+            throw new IllegalArgumentException("channel must not be null");
+        }
+        this.channel = channel;
+    }
+
+    /**
+     * Creates a sink that appends records to a file, creating it if it does not exist.
+     *
+     * @param path The file to append to.
+     * @return A new sink.
+     * @throws IOException If the file cannot be opened.
+     */
+    public static ChannelSink file(Path path) throws IOException {
+        return new ChannelSink(FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    @Override
+    public synchronized void write(Chillog.Level level, ByteBuffer record) {
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException e) {
+            droppedRecords.incrementAndGet();
+        }
+    }
+
+    @Override
+    public synchronized void write(Chillog.Level level, ByteBuffer header, ByteBuffer body) {
+        slices[0] = headerView(header);
+        slices[1] = body;
+        try {
+            while (body.hasRemaining()) {
+                channel.write(slices);
+            }
+        } catch (IOException e) {
+            droppedRecords.incrementAndGet();
+        } finally {
+            slices[1] = null;
+        }
+    }
+
+    /**
+     * Gets a view of the header, positioned like it, that this sink can move through: the header itself is shared by
+     * every sink of the logger, and must not be changed.
+     */
+    private ByteBuffer headerView(ByteBuffer header) {
+        if (header != this.header) {
+            this.header = header;
+            this.headerView = header.duplicate();
+        }
+        return headerView.limit(header.limit()).position(header.position());
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Number of records that could not be written.
+     *
+     * @return The number of dropped records since this sink was created.
+     */
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
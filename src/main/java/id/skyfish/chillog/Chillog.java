@@ -1,18 +1,20 @@
 package id.skyfish.chillog;
 
-import com.alibaba.fastjson.JSONObject;
-
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * Chillog main class.
  * <p>
  * This class contains static methods to log message that conforms with the Chillog Logging Format v1.
  * The log will be directed to STDOUT or STDERR.
+ * <p>
+ * The static methods delegate to a default {@link ChillogLogger}. Use {@link ChillogLogger#builder()} to create
+ * loggers with their own sink, severity threshold and fixed fields.
  */
 public class Chillog {
 
@@ -22,7 +24,7 @@ public class Chillog {
      * This level based loosely on BSD Syslog (https://tools.ietf.org/html/rfc3164) with
      * notable exception of the lack of EMERGENCY level.
      */
-    enum Level {
+    public enum Level {
         ALERT(1),
         CRITICAL(2),
         ERROR(3),
@@ -48,19 +50,10 @@ public class Chillog {
     static final Map<String, Object> EMPTY_PAIRS = Collections.emptyMap();
 
     /**
-     * Hostname of the machine where the application is running.
+     * The logger the static methods delegate to. It is created on first use, so that {@link ChillogLogger}
+     * instances can be used without the environment the default logger needs.
      */
-    private static String hostname;
-
-    /**
-     * The service name identifier of the application.
-     */
-    private static String serviceName;
-
-    static {
-        setHostname();
-        setServiceName();
-    }
+    private static volatile ChillogLogger defaultLogger;
 
     /**
      * Prints a Chillog-formatted string to STDERR, with "action must be taken immediately" severity.
@@ -68,7 +61,7 @@ public class Chillog {
      * @param shortMessage Short message to print.
      */
     public static void alert(String shortMessage) {
-        alert(shortMessage, null, EMPTY_PAIRS);
+        getDefaultLogger().alert(shortMessage);
     }
 
     /**
@@ -77,7 +70,7 @@ public class Chillog {
      * @param shortMessage Short message to print.
      */
     public static void critical(String shortMessage) {
-        critical(shortMessage, null, EMPTY_PAIRS);
+        getDefaultLogger().critical(shortMessage);
     }
 
     /**
@@ -86,7 +79,7 @@ public class Chillog {
      * @param shortMessage Short message to print.
      */
     public static void error(String shortMessage) {
-        error(shortMessage, null, EMPTY_PAIRS);
+        getDefaultLogger().error(shortMessage);
     }
 
     /**
@@ -95,7 +88,7 @@ public class Chillog {
      * @param shortMessage Short message to print.
      */
     public static void warning(String shortMessage) {
-        warning(shortMessage, null, EMPTY_PAIRS);
+        getDefaultLogger().warning(shortMessage);
     }
 
     /**
@@ -104,7 +97,7 @@ public class Chillog {
      * @param shortMessage Short message to print.
      */
     public static void notice(String shortMessage) {
-        notice(shortMessage, null, EMPTY_PAIRS);
+        getDefaultLogger().notice(shortMessage);
     }
 
     /**
@@ -113,7 +106,7 @@ public class Chillog {
      * @param shortMessage Short message to print.
      */
     public static void info(String shortMessage) {
-        info(shortMessage, null, EMPTY_PAIRS);
+        getDefaultLogger().info(shortMessage);
     }
 
     /**
@@ -122,7 +115,7 @@ public class Chillog {
      * @param shortMessage Short message to print.
      */
     public static void debug(String shortMessage) {
-        debug(shortMessage, null, EMPTY_PAIRS);
+        getDefaultLogger().debug(shortMessage);
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -140,8 +133,7 @@ public class Chillog {
      * @param keyValuePairs Varargs that will be used as additional information, formatted as a key-value pairs.
      */
     public static void alert(String shortMessage, String fullMessage, String... keyValuePairs) {
-        Map<String, Object> additionalFields = convertToMap(keyValuePairs);
-        alert(shortMessage, fullMessage, additionalFields);
+        getDefaultLogger().alert(shortMessage, fullMessage, keyValuePairs);
     }
 
     /**
@@ -157,8 +149,7 @@ public class Chillog {
      * @param keyValuePairs Varargs that will be used as additional information, formatted as a key-value pairs.
      */
     public static void critical(String shortMessage, String fullMessage, String... keyValuePairs) {
-        Map<String, Object> additionalFields = convertToMap(keyValuePairs);
-        critical(shortMessage, fullMessage, additionalFields);
+        getDefaultLogger().critical(shortMessage, fullMessage, keyValuePairs);
     }
 
     /**
@@ -174,8 +165,7 @@ public class Chillog {
      * @param keyValuePairs Varargs that will be used as additional information, formatted as a key-value pairs.
      */
     public static void error(String shortMessage, String fullMessage, String... keyValuePairs) {
-        Map<String, Object> additionalFields = convertToMap(keyValuePairs);
-        error(shortMessage, fullMessage, additionalFields);
+        getDefaultLogger().error(shortMessage, fullMessage, keyValuePairs);
     }
 
     /**
@@ -191,8 +181,7 @@ public class Chillog {
      * @param keyValuePairs Varargs that will be used as additional information, formatted as a key-value pairs.
      */
     public static void warning(String shortMessage, String fullMessage, String... keyValuePairs) {
-        Map<String, Object> additionalFields = convertToMap(keyValuePairs);
-        warning(shortMessage, fullMessage, additionalFields);
+        getDefaultLogger().warning(shortMessage, fullMessage, keyValuePairs);
     }
 
     /**
@@ -208,8 +197,7 @@ public class Chillog {
      * @param keyValuePairs Varargs that will be used as additional information, formatted as a key-value pairs.
      */
     public static void notice(String shortMessage, String fullMessage, String... keyValuePairs) {
-        Map<String, Object> additionalFields = convertToMap(keyValuePairs);
-        notice(shortMessage, fullMessage, additionalFields);
+        getDefaultLogger().notice(shortMessage, fullMessage, keyValuePairs);
     }
 
     /**
@@ -225,8 +213,7 @@ public class Chillog {
      * @param keyValuePairs Varargs that will be used as additional information, formatted as a key-value pairs.
      */
     public static void info(String shortMessage, String fullMessage, String... keyValuePairs) {
-        Map<String, Object> additionalFields = convertToMap(keyValuePairs);
-        info(shortMessage, fullMessage, additionalFields);
+        getDefaultLogger().info(shortMessage, fullMessage, keyValuePairs);
     }
 
     /**
@@ -242,8 +229,7 @@ public class Chillog {
      * @param keyValuePairs Varargs that will be used as additional information, formatted as a key-value pairs.
      */
     public static void debug(String shortMessage, String fullMessage, String... keyValuePairs) {
-        Map<String, Object> additionalFields = convertToMap(keyValuePairs);
-        debug(shortMessage, fullMessage, additionalFields);
+        getDefaultLogger().debug(shortMessage, fullMessage, keyValuePairs);
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -251,26 +237,15 @@ public class Chillog {
     /**
      * Creates a map containing key-value pairs. The format must be interleaving key and value.
      * Sample: <code>map("key1", 1, "key2", "value2", "key3", new Something(3);</code>.
+     * <p>
+     * The returned map copies the pairs into arrays, converting each key once, and keeps the order of the pairs. When
+     * a key appears more than once, the last value wins.
      *
      * @param keyValuePairs The key-value pairs.
      * @return Map contains key-value pairs.
      */
     public static Map<String, Object> map(Object... keyValuePairs) {
-        Map<String, Object> result = new HashMap<>(keyValuePairs.length / 2, 1f);
-
-        for (int i = 0; i < keyValuePairs.length; ) {
-            Object k = i < keyValuePairs.length ? keyValuePairs[i++] : null;
-            Object v = i < keyValuePairs.length ? keyValuePairs[i++] : null;
-            if (k != null) {
-                if (v != null) {
-                    result.put(k.toString(), v);
-                } else {
-                    result.put(k.toString(), "");
-                }
-            }
-        }
-
-        return result;
+        return FieldList.ofObjects(keyValuePairs);
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -288,7 +263,7 @@ public class Chillog {
      *                         will be called in the implementation.
      */
     public static void alert(String shortMessage, String fullMessage, Map<String, Object> additionalFields) {
-        log(shortMessage, fullMessage, getMillisTimestamp(), Level.ALERT, additionalFields);
+        getDefaultLogger().alert(shortMessage, fullMessage, additionalFields);
     }
 
     /**
@@ -304,7 +279,7 @@ public class Chillog {
      *                         will be called in the implementation.
      */
     public static void critical(String shortMessage, String fullMessage, Map<String, Object> additionalFields) {
-        log(shortMessage, fullMessage, getMillisTimestamp(), Level.CRITICAL, additionalFields);
+        getDefaultLogger().critical(shortMessage, fullMessage, additionalFields);
     }
 
     /**
@@ -320,7 +295,7 @@ public class Chillog {
      *                         will be called in the implementation.
      */
     public static void error(String shortMessage, String fullMessage, Map<String, Object> additionalFields) {
-        log(shortMessage, fullMessage, getMillisTimestamp(), Level.ERROR, additionalFields);
+        getDefaultLogger().error(shortMessage, fullMessage, additionalFields);
     }
 
     /**
@@ -336,7 +311,7 @@ public class Chillog {
      *                         will be called in the implementation.
      */
     public static void warning(String shortMessage, String fullMessage, Map<String, Object> additionalFields) {
-        log(shortMessage, fullMessage, getMillisTimestamp(), Level.WARNING, additionalFields);
+        getDefaultLogger().warning(shortMessage, fullMessage, additionalFields);
     }
 
     /**
@@ -352,7 +327,7 @@ public class Chillog {
      *                         will be called in the implementation.
      */
     public static void notice(String shortMessage, String fullMessage, Map<String, Object> additionalFields) {
-        log(shortMessage, fullMessage, getMillisTimestamp(), Level.NOTICE, additionalFields);
+        getDefaultLogger().notice(shortMessage, fullMessage, additionalFields);
     }
 
     /**
@@ -368,7 +343,7 @@ public class Chillog {
      *                         will be called in the implementation.
      */
     public static void info(String shortMessage, String fullMessage, Map<String, Object> additionalFields) {
-        log(shortMessage, fullMessage, getMillisTimestamp(), Level.INFORMATIONAL, additionalFields);
+        getDefaultLogger().info(shortMessage, fullMessage, additionalFields);
     }
 
     /**
@@ -384,11 +359,213 @@ public class Chillog {
      *                         will be called in the implementation.
      */
     public static void debug(String shortMessage, String fullMessage, Map<String, Object> additionalFields) {
-        log(shortMessage, fullMessage, getMillisTimestamp(), Level.DEBUG, additionalFields);
+        getDefaultLogger().debug(shortMessage, fullMessage, additionalFields);
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Prints a Chillog-formatted short message built from a template to STDERR, with
+     * "action must be taken immediately" severity.
+     *
+     * @param template  The parsed short message, see {@link #template(String)}.
+     * @param arguments Values for the placeholders of the template.
+     */
+    public static void alert(ChillogTemplate template, Object... arguments) {
+        getDefaultLogger().alert(template, arguments);
+    }
+
+    /**
+     * Prints a Chillog-formatted short message built from a template to STDERR, with
+     * "critical conditions" severity.
+     *
+     * @param template  The parsed short message, see {@link #template(String)}.
+     * @param arguments Values for the placeholders of the template.
+     */
+    public static void critical(ChillogTemplate template, Object... arguments) {
+        getDefaultLogger().critical(template, arguments);
+    }
+
+    /**
+     * Prints a Chillog-formatted short message built from a template to STDERR, with
+     * "error conditions" severity.
+     *
+     * @param template  The parsed short message, see {@link #template(String)}.
+     * @param arguments Values for the placeholders of the template.
+     */
+    public static void error(ChillogTemplate template, Object... arguments) {
+        getDefaultLogger().error(template, arguments);
+    }
+
+    /**
+     * Prints a Chillog-formatted short message built from a template to STDOUT, with
+     * "warning conditions" severity.
+     *
+     * @param template  The parsed short message, see {@link #template(String)}.
+     * @param arguments Values for the placeholders of the template.
+     */
+    public static void warning(ChillogTemplate template, Object... arguments) {
+        getDefaultLogger().warning(template, arguments);
+    }
+
+    /**
+     * Prints a Chillog-formatted short message built from a template to STDOUT, with
+     * "normal but significant condition" severity.
+     *
+     * @param template  The parsed short message, see {@link #template(String)}.
+     * @param arguments Values for the placeholders of the template.
+     */
+    public static void notice(ChillogTemplate template, Object... arguments) {
+        getDefaultLogger().notice(template, arguments);
+    }
+
+    /**
+     * Prints a Chillog-formatted short message built from a template to STDOUT, with
+     * "informational messages" severity.
+     *
+     * @param template  The parsed short message, see {@link #template(String)}.
+     * @param arguments Values for the placeholders of the template.
+     */
+    public static void info(ChillogTemplate template, Object... arguments) {
+        getDefaultLogger().info(template, arguments);
+    }
+
+    /**
+     * Prints a Chillog-formatted short message built from a template to STDOUT, with
+     * "debug-level messages" severity.
+     *
+     * @param template  The parsed short message, see {@link #template(String)}.
+     * @param arguments Values for the placeholders of the template.
+     */
+    public static void debug(ChillogTemplate template, Object... arguments) {
+        getDefaultLogger().debug(template, arguments);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Prints a batch of Chillog-formatted records, in order, with one clock read and as few writes as possible. See
+     * {@link ChillogLogger#logAll(Collection)}.
+     *
+     * @param events The events, e.g. <code>ChillogEvent.of(Chillog.Level.INFORMATIONAL, "item processed")</code>.
+     */
+    public static void logAll(Collection<ChillogEvent> events) {
+        getDefaultLogger().logAll(events);
+    }
+
+    /**
+     * Prints a stream of Chillog-formatted records, in encounter order, with one clock read and as few writes as
+     * possible. See {@link ChillogLogger#logAll(Stream)}.
+     *
+     * @param events The events.
+     */
+    public static void logAll(Stream<ChillogEvent> events) {
+        getDefaultLogger().logAll(events);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Parses a short message with <code>{}</code> placeholders into a {@link ChillogTemplate}, e.g.
+     * <code>Chillog.template("user {} paid {}")</code>. Parsed templates are cached by pattern, but callers should keep
+     * them in constants.
+     *
+     * @param pattern Short message with <code>{}</code> placeholders.
+     * @return The template.
+     */
+    public static ChillogTemplate template(String pattern) {
+        return ChillogTemplate.of(pattern);
+    }
+
+    /**
+     * Logs instances of the given class, and of its subclasses, as one additional field per property, like classes
+     * annotated with {@link ChillogFields}. For example, after registering <code>User</code>,
+     * <code>Chillog.map("user", user)</code> prints <code>"_user.id"</code> and <code>"_user.name"</code> instead of
+     * <code>"_user"</code>.
+     *
+     * @param type The class to log as fields, e.g. a domain class from another library.
+     */
+    public static void registerFields(Class<?> type) {
+        if (type == null) {
+            throw new IllegalArgumentException("type must not be null");
+        }
+        ObjectFields.register(type);
+    }
+
+    /**
+     * Gets the logger the static methods delegate to. Unless replaced with {@link #setDefaultLogger(ChillogLogger)},
+     * it prints to STDOUT/STDERR with the service name taken from environment variable called SERVICE_NAME. If
+     * environment variable CHILLOG_CONFIG is set, the file it names is applied to it and watched for changes, see
+     * {@link ChillogConfigWatcher}. A file that cannot be applied is reported as a WARNING record, and the logger
+     * starts with its default settings.
+     *
+     * @return The default {@link ChillogLogger}.
+     */
+    public static ChillogLogger getDefaultLogger() {
+        ChillogLogger logger = defaultLogger;
+        if (logger == null) {
+            synchronized (Chillog.class) {
+                logger = defaultLogger;
+                if (logger == null) {
+                    logger = ChillogLogger.builder().service(getServiceName()).build();
+                    watchConfig(logger);
+                    defaultLogger = logger;
+                }
+            }
+        }
+        return logger;
+    }
+
+    /**
+     * Gets a logger named after a class, from the default logger, see {@link ChillogLogger#getLogger(String)}. Its
+     * records have the name of the class as the <code>_logger</code> field, and its threshold can be set per
+     * package, e.g. with <code>level.com.example.payments = DEBUG</code> in the configuration file.
+     * <p>
+     * The named logger belongs to the default logger at the time of the call: replace the default logger before
+     * getting named loggers.
+     *
+     * @param type The class that logs.
+     * @return The named {@link ChillogLogger}.
+     */
+    public static ChillogLogger getLogger(Class<?> type) {
+        if (type == null) {
+            throw new IllegalArgumentException("type must not be null");
+        }
+        return getDefaultLogger().getLogger(type.getName());
+    }
+
+    /**
+     * Gets a named logger from the default logger, see {@link ChillogLogger#getLogger(String)}.
+     *
+     * @param name The name of the logger, e.g. <code>com.example.payments</code>.
+     * @return The named {@link ChillogLogger}.
+     */
+    public static ChillogLogger getLogger(String name) {
+        return getDefaultLogger().getLogger(name);
+    }
+
+    /**
+     * Replaces the logger the static methods delegate to, e.g. with one that has a different sink.
+     *
+     * @param logger The new default {@link ChillogLogger}.
+     */
+    public static void setDefaultLogger(ChillogLogger logger) {
+        if (logger == null) {
+            throw new IllegalArgumentException("logger must not be null");
+        }
+        defaultLogger = logger;
+    }
+
+    /**
+     * Opens a {@link ChillogScope} on the current thread. Until it is closed, INFORMATIONAL and DEBUG messages are
+     * buffered, and only printed if an ERROR or above message is printed in the same scope.
+     *
+     * @return The scope, to be closed when the unit of work (e.g. a request) ends.
+     */
+    public static ChillogScope openScope() {
+        return ChillogScope.open();
+    }
+
     /**
      * Log message to either STDOUT (for message with WARNING or above severity) or STDERR (for message with ERROR or
      * below severity).
@@ -401,12 +578,7 @@ public class Chillog {
      */
     static void log(String shortMessage, String fullMessage, long timestamp,
                     Level level, Map<String, Object> additionalFields) {
-        String logMessageString = generateJsonString(shortMessage, fullMessage, timestamp, level, additionalFields);
-        if (level.getValue() >= Level.WARNING.getValue()) {
-            System.out.println(logMessageString);
-        } else {
-            System.err.println(logMessageString);
-        }
+        getDefaultLogger().log(shortMessage, fullMessage, timestamp, level, additionalFields);
     }
 
     /**
@@ -421,49 +593,7 @@ public class Chillog {
      */
     static String generateJsonString(String shortMessage, String fullMessage, long timestamp, Level level,
                                      Map<String, Object> additionalFields) {
-        JSONObject logMessageJson = new JSONObject();
-
-        /*
-         * Required fields
-         */
-
-        logMessageJson.put("version", 1);
-        logMessageJson.put("host", hostname);
-        logMessageJson.put("service", serviceName);
-        logMessageJson.put("short_message", shortMessage);
-        logMessageJson.put("timestamp", timestamp);
-        logMessageJson.put("level", level.getValue());
-
-
-        /*
-         * Optional fields
-         */
-
-        if (fullMessage != null) {
-            logMessageJson.put("full_message", fullMessage);
-        }
-
-        if (additionalFields != EMPTY_PAIRS) {
-            for (Map.Entry<String, Object> additionalField : additionalFields.entrySet()) {
-                Object key = additionalField.getKey();
-                Object value = additionalField.getValue();
-                if (value != null) {
-                    logMessageJson.put("_" + key, value.toString());
-                } else {
-                    logMessageJson.put("_" + key, "NULL");
-                }
-            }
-
-            // Check for reserved field: _id
-            Object content = logMessageJson.get("_id");
-            if (content != null) {
-                // Rename the field if found
-                logMessageJson.put("__id", content);
-                logMessageJson.remove("_id");
-            }
-        }
-
-        return logMessageJson.toJSONString();
+        return getDefaultLogger().generateJsonString(shortMessage, fullMessage, timestamp, level, additionalFields);
     }
 
     /**
@@ -481,6 +611,8 @@ public class Chillog {
      * n * 2 + 1: [value(n * 2 + 1)].
      * </pre>
      *
+     * The pairs are copied into an array-backed map: see {@link FieldList}.
+     *
      * @param strings array that contains key-value pairs.
      * @return Map of string to string where each entry corresponds to key-value pair.
      */
@@ -489,74 +621,44 @@ public class Chillog {
             return EMPTY_PAIRS;
         }
 
-        Map<String, Object> pairs = new HashMap<>();
-
-        // Loop through each pairs.
-        int pairCount = (int) Math.ceil((float) strings.length / 2);
-        for (int i = 0; i < pairCount; i++) {
-            int pairKeyIndex = i * 2;               // index of the key of the pair in the array.
-            int pairValueIndex = pairKeyIndex + 1;  // index of the value of the pair in the array.
-
-            // Check and prevent NPE
-            if (pairValueIndex < strings.length) {
-                pairs.put(strings[pairKeyIndex], strings[pairValueIndex]);
-            } else {
-                pairs.put(strings[pairKeyIndex], "");
-            }
-        }
-
-        return pairs;
+        return FieldList.ofStrings(strings);
     }
 
     /**
-     * Sets the hostname.
-     * <p>
-     * This method will set the hostname for logging purpose. The way it does this is by:
-     * <ol>
-     * <li>Checks whether environment variable called HOSTNAME is set. If it is, the hostname
-     * will be set according to the value of this environment value.</li>
-     * <li>If hostname is still not set, this method will try to get the local hostname by
-     * calling <code>InetAddress.getLocalHost().getHostName()</code>, and then set the
-     * hostname according to the result.</li>
-     * <li>If the hostname is still not set, the hostname will be set to empty string (i.e. "").</li>
-     * </ol>
-     */
-    private static void setHostname() {
-        hostname = System.getenv("HOSTNAME");
-
-        if (hostname == null) {
-            try {
-                hostname = InetAddress.getLocalHost().getHostName();
-            } catch (UnknownHostException ignored) {
-            }
+     * Configures the default logger with the file named by environment variable called CHILLOG_CONFIG, if it is set.
+     * A file that cannot be applied is reported through the logger, which keeps the settings of its builder until the
+     * file is fixed.
+     */
+    private static void watchConfig(ChillogLogger logger) {
+        String config = System.getenv("CHILLOG_CONFIG");
+        if (config == null) {
+            return;
         }
 
-        if (hostname == null) {
-            hostname = "";
+        try {
+            ChillogConfigWatcher.watchLeniently(Paths.get(config), logger);
+        } catch (IOException | IllegalArgumentException e) {
+            // E.g. the directory of the file does not exist: there is nothing to watch.
+            logger.warning("chillog configuration not watched", e.toString(), "file", config);
         }
     }
 
     /**
-     * Sets the service name.
+     * Gets the service name.
      * <p>
-     * This method will set the service name for logging purpose. The value will be fetched
+     * This method will get the service name for logging purpose. The value will be fetched
      * from environment variable called SERVICE_NAME. If no such environment variable found,
      * {@link RuntimeException} will be thrown.
+     *
+     * @return The service name identifier of the application.
      */
-    private static void setServiceName() {
-        serviceName = System.getenv("SERVICE_NAME");
+    private static String getServiceName() {
+        String serviceName = System.getenv("SERVICE_NAME");
 
         if (serviceName == null) {
             throw new RuntimeException("SERVICE_NAME is not set. Please set it in your environment variable.");
         }
-    }
 
-    /**
-     * Gets how long milliseconds has passed since January 1st, 1970.
-     *
-     * @return A milliseconds value that represent the time passed since January 1st, 1970.
-     */
-    private static long getMillisTimestamp() {
-        return System.currentTimeMillis();
+        return serviceName;
     }
 }
@@ -0,0 +1,221 @@
+package id.skyfish.chillog;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of a {@link ChillogLogger} that can be changed while it runs, e.g. read from a properties file:
+ * <pre>
+ * # The least severe level written
+ * level = INFORMATIONAL
+ * # The least severe level written by the named loggers of a package or class, and of those below it
+ * level.com.example.payments = DEBUG
+ * # Print one in 100 records with this short message, or template pattern
+ * sample.cache\ miss = 100
+ * # console, file:&lt;path&gt;, rotating:&lt;directory&gt;/&lt;name&gt; or socket:&lt;path&gt;
+ * sink = file:/var/log/app/chillog.log
+ * # Number of pooled direct buffers to encode into, or 0 for the per-thread heap buffer
+ * buffers.direct = 16
+ * # Capacity of the buffer of a socket sink, in bytes
+ * buffers.socket = 1048576
+ * </pre>
+ * Settings that are not given keep the value set on the builder of the logger. Instances are immutable: a logger
+ * applies one with {@link ChillogLogger#configure(ChillogConfig)}, and {@link ChillogConfigWatcher} reloads one when
+ * its file changes.
+ */
+public final class ChillogConfig {
+
+    /**
+     * A configuration that keeps every setting of the builder.
+     */
+    static final ChillogConfig EMPTY =
+            new ChillogConfig(null, Collections.emptyMap(), Collections.emptyMap(), null, -1, -1);
+
+    private static final String LEVEL = "level";
+    private static final String NAMED_LEVEL = "level.";
+    private static final String SAMPLE = "sample.";
+    private static final String SINK = "sink";
+    private static final String DIRECT_BUFFERS = "buffers.direct";
+    private static final String SOCKET_BUFFER = "buffers.socket";
+
+    /**
+     * The threshold, or null to keep the one of the builder.
+     */
+    final Chillog.Level level;
+
+    /**
+     * Thresholds of named loggers, by name prefix, in addition to those of the builder.
+     */
+    final Map<String, Chillog.Level> levels;
+
+    /**
+     * Sampling rates, as "one in N", by short message or template pattern.
+     */
+    final Map<String, Integer> sampleRates;
+
+    /**
+     * The sink, e.g. <code>file:/var/log/app.log</code>, or null to keep the one of the builder.
+     */
+    final String sink;
+
+    /**
+     * The number of pooled direct buffers, or -1 to keep the one of the builder.
+     */
+    final int directBuffers;
+
+    /**
+     * The buffer capacity of a socket sink, or -1 for the default one.
+     */
+    final int socketBuffer;
+
+    private ChillogConfig(Chillog.Level level, Map<String, Chillog.Level> levels, Map<String, Integer> sampleRates,
+                          String sink, int directBuffers, int socketBuffer) {
+        this.level = level;
+        this.levels = levels;
+        this.sampleRates = sampleRates;
+        this.sink = sink;
+        this.directBuffers = directBuffers;
+        this.socketBuffer = socketBuffer;
+    }
+
+    /**
+     * Reads a configuration from a properties file, in UTF-8.
+     *
+     * @param file The properties file.
+     * @return The configuration.
+     * @throws IOException              If the file cannot be read.
+     * @throws IllegalArgumentException If a setting is unknown or invalid.
+     */
+    public static ChillogConfig load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return parse(properties);
+    }
+
+    /**
+     * Reads a configuration from properties.
+     *
+     * @param properties The settings, in the format of the properties file.
+     * @return The configuration.
+     * @throws IllegalArgumentException If a setting is unknown or invalid.
+     */
+    public static ChillogConfig parse(Properties properties) {
+        Chillog.Level level = null;
+        Map<String, Chillog.Level> levels = new HashMap<>();
+        Map<String, Integer> sampleRates = new HashMap<>();
+        String sink = null;
+        int directBuffers = -1;
+        int socketBuffer = -1;
+
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key).trim();
+            if (key.equals(LEVEL)) {
+                level = parseLevel(value);
+            } else if (key.startsWith(NAMED_LEVEL)) {
+                levels.put(key.substring(NAMED_LEVEL.length()), parseLevel(value));
+            } else if (key.startsWith(SAMPLE)) {
+                sampleRates.put(key.substring(SAMPLE.length()), parseInt(key, value, 1));
+            } else if (key.equals(SINK)) {
+                sink = value;
+            } else if (key.equals(DIRECT_BUFFERS)) {
+                directBuffers = parseInt(key, value, 0);
+            } else if (key.equals(SOCKET_BUFFER)) {
+                socketBuffer = parseInt(key, value, 1);
+            } else {
+                throw new IllegalArgumentException("unknown setting: " + key);
+            }
+        }
+
+        if (sink != null) {
+            // Fails on an unknown kind of sink now, rather than when the configuration is applied.
+            sinkKind(sink);
+        }
+        return new ChillogConfig(level, Collections.unmodifiableMap(levels), Collections.unmodifiableMap(sampleRates),
+                sink, directBuffers, socketBuffer);
+    }
+
+    private static Chillog.Level parseLevel(String value) {
+        try {
+            return Chillog.Level.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown level: " + value, e);
+        }
+    }
+
+    private static int parseInt(String key, String value, int minimum) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= minimum) {
+                return number;
+            }
+        } catch (NumberFormatException ignored) {
+            // Reported below, with the name of the setting.
+        }
+        throw new IllegalArgumentException(key + " must be an integer of at least " + minimum + ": " + value);
+    }
+
+    private static String sinkKind(String sink) {
+        int colon = sink.indexOf(':');
+        String kind = colon < 0 ? sink : sink.substring(0, colon);
+        switch (kind) {
+            case "console":
+                return kind;
+            case "file":
+            case "rotating":
+            case "socket":
+                if (colon < 0 || colon == sink.length() - 1) {
+                    throw new IllegalArgumentException("sink needs a path: " + sink);
+                }
+                return kind;
+            default:
+                throw new IllegalArgumentException("unknown sink: " + sink);
+        }
+    }
+
+    /**
+     * Checks whether the sink of this configuration is the same as the one of another, so it can be kept.
+     */
+    boolean hasSameSink(ChillogConfig other) {
+        return Objects.equals(sink, other.sink) && socketBuffer == other.socketBuffer;
+    }
+
+    /**
+     * Opens the sink of this configuration. Null if it does not set one.
+     */
+    ChillogSink openSink() throws IOException {
+        if (sink == null) {
+            return null;
+        }
+
+        String kind = sinkKind(sink);
+        if (kind.equals("console")) {
+            return new ConsoleSink();
+        }
+
+        Path path = Paths.get(sink.substring(kind.length() + 1));
+        switch (kind) {
+            case "file":
+                return ChannelSink.file(path);
+            case "rotating":
+                Path directory = path.toAbsolutePath().getParent();
+                return RotatingFileSink.builder(directory, path.getFileName().toString()).build();
+            default:
+                return socketBuffer > 0
+                        ? new UnixSocketSink(path, socketBuffer, 1, TimeUnit.SECONDS)
+                        : new UnixSocketSink(path);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package id.skyfish.chillog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies a configuration file to a {@link ChillogLogger}, and applies it again whenever the file changes, e.g. to
+ * raise the verbosity of a running service during an incident:
+ * <pre>
+ * ChillogConfigWatcher.watch(Paths.get("/etc/app/chillog.properties"), logger);
+ * </pre>
+ * The directory of the file is watched with a {@link WatchService}, on a daemon thread, so files replaced by a
+ * rename, as editors and configuration management tools do, are picked up too. On any change in the directory, the
+ * file the path resolves to and its modification time are checked as well, so a file reached through a symbolic link
+ * that is swapped, like the <code>..data</code> link of a Kubernetes ConfigMap volume, is reloaded too. A file that
+ * cannot be read or has invalid settings is reported as a WARNING record, and the previous settings stay in effect.
+ * See {@link ChillogConfig} for the format of the file.
+ */
+public final class ChillogConfigWatcher implements Closeable {
+
+    /**
+     * How long to wait for the events of a change to settle, so that a file being written is read once it is done.
+     */
+    private static final long SETTLE_MILLIS = 100;
+
+    private final Path file;
+    private final ChillogLogger logger;
+    private final WatchService watchService;
+
+    /**
+     * The file the path resolved to, and its modification time, when it was last loaded. Only used by the watching
+     * thread once it is started.
+     */
+    private Path loadedPath;
+    private FileTime loadedTime;
+
+    private ChillogConfigWatcher(Path file, ChillogLogger logger) throws IOException {
+        this.file = file;
+        this.logger = logger;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        try {
+            file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Applies a configuration file to a logger, and starts watching it.
+     *
+     * @param file   The properties file, see {@link ChillogConfig}.
+     * @param logger The {@link ChillogLogger} to configure.
+     * @return The watcher, to be closed to stop watching.
+     * @throws IOException If the file cannot be read, or its sink cannot be opened.
+     */
+    public static ChillogConfigWatcher watch(Path file, ChillogLogger logger) throws IOException {
+        if (file == null || logger == null) {
+            throw new IllegalArgumentException("file and logger must not be null");
+        }
+
+        Path absolute = file.toAbsolutePath();
+        ChillogConfigWatcher watcher = new ChillogConfigWatcher(absolute, logger);
+        try {
+            watcher.recordLoaded();
+            logger.configure(ChillogConfig.load(absolute));
+        } catch (IOException | RuntimeException e) {
+            watcher.close();
+            throw e;
+        }
+
+        watcher.start();
+        return watcher;
+    }
+
+    /**
+     * Applies a configuration file to a logger if it can, and starts watching it. Unlike
+     * {@link #watch(Path, ChillogLogger)}, a file that cannot be read or has invalid settings is reported as a WARNING
+     * record, and applied once it is fixed.
+     *
+     * @throws IOException If the directory of the file cannot be watched.
+     */
+    static ChillogConfigWatcher watchLeniently(Path file, ChillogLogger logger) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        ChillogConfigWatcher watcher = new ChillogConfigWatcher(absolute, logger);
+        watcher.load("chillog configuration not loaded");
+        watcher.start();
+        return watcher;
+    }
+
+    private void start() {
+        Thread thread = new Thread(this::run, "chillog-config");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching the file. The settings in effect are kept.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = pollChanged(key);
+
+                // Editors often write a file in several steps: wait for the last one.
+                while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= pollChanged(key);
+                }
+
+                // Other files of the directory changed, e.g. a symbolic link on the way to the file was swapped.
+                if (changed || resolvesElsewhere()) {
+                    load("chillog configuration not reloaded");
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Closed.
+        }
+    }
+
+    /**
+     * Consumes the events of a key, and checks whether any of them is about the file.
+     */
+    private boolean pollChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Checks whether the path now resolves to another file than the one loaded, or to one modified since.
+     */
+    private boolean resolvesElsewhere() {
+        try {
+            Path path = file.toRealPath();
+            return !path.equals(loadedPath) || !Files.getLastModifiedTime(path).equals(loadedTime);
+        } catch (IOException e) {
+            // E.g. in the middle of a swap: the next event checks again.
+            return false;
+        }
+    }
+
+    /**
+     * Remembers the file the path resolves to as the one loaded, before it is loaded, so that a file that fails to
+     * load is reported once.
+     */
+    private void recordLoaded() throws IOException {
+        loadedPath = file.toRealPath();
+        loadedTime = Files.getLastModifiedTime(loadedPath);
+    }
+
+    /**
+     * Applies the file, or reports why it cannot be applied and keeps the settings in effect.
+     *
+     * @param failure The short message of the WARNING record reporting a failure.
+     */
+    private void load(String failure) {
+        try {
+            recordLoaded();
+            logger.configure(ChillogConfig.load(file));
+        } catch (IOException | RuntimeException e) {
+            logger.warning(failure, e.toString(), "file", file.toString());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package id.skyfish.chillog;
+
+import java.util.Map;
+
+/**
+ * A record to print with {@link ChillogLogger#logAll(java.util.Collection)}, e.g. one per item of a batch job.
+ * <p>
+ * Events are immutable, and hold their arguments as they are: they are only converted to strings when the batch is
+ * encoded, and not at all if their severity does not pass the threshold. Their timestamp is the time the batch is
+ * printed.
+ */
+public final class ChillogEvent {
+
+    final Chillog.Level level;
+    final String shortMessage;
+    final ChillogTemplate template;
+    final Object[] arguments;
+    final String fullMessage;
+    final String[] keyValuePairs;
+    final Map<String, Object> additionalFields;
+
+    private ChillogEvent(Chillog.Level level, String shortMessage, ChillogTemplate template, Object[] arguments,
+                         String fullMessage, String[] keyValuePairs, Map<String, Object> additionalFields) {
+        if (level == null) {
+            throw new IllegalArgumentException("level must not be null");
+        }
+        this.level = level;
+        this.shortMessage = shortMessage;
+        this.template = template;
+        this.arguments = arguments;
+        this.fullMessage = fullMessage;
+        this.keyValuePairs = keyValuePairs;
+        this.additionalFields = additionalFields;
+    }
+
+    /**
+     * Creates an event with a short message.
+     *
+     * @param level        The severity {@link Chillog.Level} of the event.
+     * @param shortMessage Short message that describe the event.
+     * @return A new event.
+     */
+    public static ChillogEvent of(Chillog.Level level, String shortMessage) {
+        return new ChillogEvent(level, shortMessage, null, null, null, null, Chillog.EMPTY_PAIRS);
+    }
+
+    /**
+     * Creates an event with additional fields given as interleaving keys and values, see
+     * {@link Chillog#info(String, String, String...)}.
+     *
+     * @param level         The severity {@link Chillog.Level} of the event.
+     * @param shortMessage  Short message that describe the event.
+     * @param fullMessage   More-detailed message. Can be null.
+     * @param keyValuePairs Additional information, formatted as key-value pairs. The array is kept, not copied.
+     * @return A new event.
+     */
+    public static ChillogEvent of(Chillog.Level level, String shortMessage, String fullMessage,
+                                  String... keyValuePairs) {
+        return new ChillogEvent(level, shortMessage, null, null, fullMessage, keyValuePairs, null);
+    }
+
+    /**
+     * Creates an event with additional fields given as a map, see {@link Chillog#info(String, String, Map)}.
+     *
+     * @param level            The severity {@link Chillog.Level} of the event.
+     * @param shortMessage     Short message that describe the event.
+     * @param fullMessage      More-detailed message. Can be null.
+     * @param additionalFields Additional information. The map is kept, not copied.
+     * @return A new event.
+     */
+    public static ChillogEvent of(Chillog.Level level, String shortMessage, String fullMessage,
+                                  Map<String, Object> additionalFields) {
+        return new ChillogEvent(level, shortMessage, null, null, fullMessage, null, additionalFields);
+    }
+
+    /**
+     * Creates an event with a templated short message, see {@link ChillogTemplate}.
+     *
+     * @param level     The severity {@link Chillog.Level} of the event.
+     * @param template  The template of the short message.
+     * @param arguments The values of the placeholders. The array is kept, not copied.
+     * @return A new event.
+     */
+    public static ChillogEvent of(Chillog.Level level, ChillogTemplate template, Object... arguments) {
+        if (template == null) {
+            throw new IllegalArgumentException("template must not be null");
+        }
+        return new ChillogEvent(level, null, template, arguments, null, null, Chillog.EMPTY_PAIRS);
+    }
+}
@@ -0,0 +1,23 @@
+package id.skyfish.chillog;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose instances are logged as their properties rather than as their <code>toString()</code>.
+ * <p>
+ * When an instance is the value of an additional field, each public getter (<code>getX()</code>, or
+ * <code>isX()</code> for booleans) becomes a field of its own, named after the key and the property, e.g.
+ * <code>Chillog.map("user", user)</code> prints <code>"_user.id"</code> and <code>"_user.name"</code>. Classes that
+ * cannot be annotated can be registered with {@link Chillog#registerFields(Class)} instead.
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ChillogFields {
+}
@@ -0,0 +1,107 @@
+package id.skyfish.chillog;
+
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * <code>java.util.logging</code> handler that prints records through Chillog.
+ * <p>
+ * Records are printed through the named Chillog logger of the same name as their logger, so with its name as the
+ * <code>_logger</code> field and with its threshold, and with their exception, if any, as the full message. The
+ * levels map as follows: SEVERE to ERROR, WARNING to WARNING, INFO to INFORMATIONAL, and CONFIG and below to
+ * DEBUG. Messages are only localized and formatted when their level passes the threshold of the Chillog logger, and
+ * the handler takes no lock. It can be configured in <code>logging.properties</code>, e.g.
+ * <code>handlers = id.skyfish.chillog.ChillogHandler</code>, or installed with {@link #install()}.
+ */
+public class ChillogHandler extends Handler {
+
+    private static final int SEVERE = java.util.logging.Level.SEVERE.intValue();
+    private static final int WARNING = java.util.logging.Level.WARNING.intValue();
+    private static final int INFO = java.util.logging.Level.INFO.intValue();
+
+    /**
+     * The logger to print to, or null for the default logger.
+     */
+    private final ChillogLogger logger;
+
+    /**
+     * Creates a handler that prints through the default logger, see {@link Chillog#getDefaultLogger()}.
+     */
+    public ChillogHandler() {
+        this(null);
+    }
+
+    /**
+     * @param logger The {@link ChillogLogger} to print through, or null for the default logger.
+     */
+    public ChillogHandler(ChillogLogger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Replaces the handlers of the root logger with a {@link ChillogHandler}, so that all
+     * <code>java.util.logging</code> records are printed through the default logger.
+     */
+    public static void install() {
+        Logger root = LogManager.getLogManager().getLogger("");
+        for (Handler handler : root.getHandlers()) {
+            root.removeHandler(handler);
+        }
+        root.addHandler(new ChillogHandler());
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (record == null || !isLoggable(record)) {
+            return;
+        }
+
+        try {
+            Chillog.Level level = toChillog(record.getLevel());
+            ChillogLogger target = logger != null ? logger : Chillog.getDefaultLogger();
+            String loggerName = record.getLoggerName();
+            if (loggerName != null) {
+                target = target.getLogger(loggerName);
+            }
+            if (!target.isEnabled(level)) {
+                return;
+            }
+
+            String shortMessage = ForeignMessages.format(record.getResourceBundle(), record.getMessage(),
+                    record.getParameters());
+            target.log(level, shortMessage, ForeignMessages.stackTrace(record.getThrown()), null);
+        } catch (RuntimeException e) {
+            // E.g. the default logger cannot be created: report it the way handlers do, instead of failing the caller.
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    /**
+     * Does nothing: the sink of the Chillog logger is flushed after each record.
+     */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Maps a <code>java.util.logging</code> level to a Chillog level.
+     */
+    static Chillog.Level toChillog(java.util.logging.Level level) {
+        int value = level.intValue();
+        if (value >= SEVERE) {
+            return Chillog.Level.ERROR;
+        } else if (value >= WARNING) {
+            return Chillog.Level.WARNING;
+        } else if (value >= INFO) {
+            return Chillog.Level.INFORMATIONAL;
+        }
+        return Chillog.Level.DEBUG;
+    }
+}
@@ -0,0 +1,437 @@
+package id.skyfish.chillog;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Queues log calls per severity class, and encodes and writes them on a background thread, most severe lane first.
+ * <p>
+ * Each {@link Lane} covers the levels from the one above it down to its own level, and has its own capacity and
+ * {@link Overflow} policy. The writer thread always drains the most severe non-empty lane first, and flushes the sink
+ * after every record of a lane that {@link Lane#flushImmediately() flushes immediately}. Records of other lanes are
+ * flushed in batches, when the queues run empty. So ALERT and CRITICAL records never wait behind a flood of DEBUG
+ * records, and a full DEBUG lane drops records instead of blocking the application. For example:
+ * <pre>
+ * ChillogLanes lanes = ChillogLanes.builder()
+ *         .lane(ChillogLanes.lane(Chillog.Level.ERROR, 1024, ChillogLanes.Overflow.BLOCK).flushImmediately())
+ *         .lane(ChillogLanes.lane(Chillog.Level.NOTICE, 8192, ChillogLanes.Overflow.DROP_OLDEST))
+ *         .lane(ChillogLanes.lane(Chillog.Level.DEBUG, 8192, ChillogLanes.Overflow.DROP_NEWEST))
+ *         .build();
+ * ChillogLogger logger = ChillogLogger.builder().lanes(lanes).build();
+ * </pre>
+ * Each lane preallocates one event slot per record it can hold. A log call fills a free slot in place with
+ * references to its arguments, and the slot is emptied and reused once it is written, so queueing a record allocates
+ * nothing. Arguments are encoded later, so they must not be modified after the call.
+ * <p>
+ * Records that a {@link ChillogScope} prints before an error are written by the logging thread itself, so that they
+ * are never dropped. Records logged while the writer thread encodes another one, e.g. by the <code>toString()</code>
+ * of a value, are written by the writer thread right away, since it cannot wait for space in a lane it drains itself.
+ * <p>
+ * Lanes can be shared by loggers. A shutdown hook closes them when the JVM exits, so that queued records are written;
+ * they can be closed earlier, which also removes the hook.
+ */
+public final class ChillogLanes implements Closeable {
+
+    /**
+     * What a full lane does with a new record.
+     */
+    public enum Overflow {
+        /**
+         * Waits for space in the lane. Nothing is lost, but the logging thread can be slowed down.
+         */
+        BLOCK,
+
+        /**
+         * Drops the oldest queued record of the lane to make space.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Drops the new record.
+         */
+        DROP_NEWEST
+    }
+
+    /**
+     * How long the writer thread sleeps when all lanes are empty, before checking them again.
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Lane[] lanes;
+
+    /**
+     * The lane of each level, indexed by level value.
+     */
+    private final Lane[] laneByLevel = new Lane[Chillog.Level.values().length + 1];
+
+    private final Thread writer;
+
+    /**
+     * Closes the lanes when the JVM exits, since the writer thread is a daemon thread.
+     */
+    private final Thread shutdownHook;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Number of log calls between their check of {@link #closed} and the queueing of their record, which
+     * {@link #close()} waits for.
+     */
+    private final AtomicInteger offering = new AtomicInteger();
+
+    private volatile boolean idle;
+    private volatile boolean closed;
+
+    private ChillogLanes(Builder builder) {
+        List<Lane> sorted = new ArrayList<>(builder.lanes);
+        if (sorted.isEmpty()) {
+            sorted.add(lane(Chillog.Level.ERROR, 1024, Overflow.BLOCK).flushImmediately());
+            sorted.add(lane(Chillog.Level.NOTICE, 8192, Overflow.BLOCK));
+            sorted.add(lane(Chillog.Level.DEBUG, 8192, Overflow.DROP_NEWEST));
+        }
+        sorted.sort(Comparator.comparingInt(lane -> lane.level.getValue()));
+        this.lanes = sorted.toArray(new Lane[0]);
+
+        for (Chillog.Level level : Chillog.Level.values()) {
+            for (Lane lane : lanes) {
+                if (level.getValue() <= lane.level.getValue()) {
+                    laneByLevel[level.getValue()] = lane;
+                    break;
+                }
+            }
+        }
+        if (laneByLevel[Chillog.Level.DEBUG.getValue()] == null) {
+            throw new IllegalArgumentException("the least severe lane must cover DEBUG");
+        }
+
+        for (Lane lane : lanes) {
+            lane.allocate();
+        }
+
+        this.writer = new Thread(this::drain, "chillog-lanes");
+        writer.setDaemon(true);
+        writer.start();
+
+        this.shutdownHook = new Thread(this::close, "chillog-lanes-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Creates a builder for new lanes.
+     *
+     * @return A new {@link Builder}.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a lane for the levels from the one above it down to the given level.
+     *
+     * @param level    The least severe {@link Chillog.Level} of the lane.
+     * @param capacity The number of records the lane holds, including the one being written.
+     * @param overflow What to do when the lane is full.
+     * @return A new {@link Lane}.
+     */
+    public static Lane lane(Chillog.Level level, int capacity, Overflow overflow) {
+        return new Lane(level, capacity, overflow);
+    }
+
+    /**
+     * Gets the number of records dropped by full lanes, or by the sink failing.
+     *
+     * @return The number of records dropped so far.
+     */
+    public long getDroppedRecords() {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the thread that encodes and writes the queued records, e.g. to measure what it allocates.
+     */
+    Thread writerThread() {
+        return writer;
+    }
+
+    /**
+     * Queues a log call, or drops it if its lane is full and drops records.
+     */
+    void offer(ChillogLogger logger, Chillog.Level level, long timestamp, String shortMessage,
+               ChillogTemplate template, Object[] arguments, String fullMessage,
+               String[] keyValuePairs, Map<String, Object> additionalFields) {
+        offering.incrementAndGet();
+        try {
+            if (closed || Thread.currentThread() == writer) {
+                // Nothing drains the lanes anymore, or the writer thread logs while it encodes a record, and would
+                // wait for itself on a full lane.
+                logger.write(level, timestamp, shortMessage, template, arguments, fullMessage, keyValuePairs,
+                        additionalFields, true);
+                return;
+            }
+
+            enqueue(logger, level, timestamp, shortMessage, template, arguments, fullMessage, keyValuePairs,
+                    additionalFields);
+        } finally {
+            offering.decrementAndGet();
+        }
+    }
+
+    private void enqueue(ChillogLogger logger, Chillog.Level level, long timestamp, String shortMessage,
+                         ChillogTemplate template, Object[] arguments, String fullMessage,
+                         String[] keyValuePairs, Map<String, Object> additionalFields) {
+        Lane lane = laneByLevel[level.getValue()];
+        LogEvent event = lane.free.poll();
+        if (event == null) {
+            switch (lane.overflow) {
+                case BLOCK:
+                    try {
+                        while ((event = lane.free.poll(IDLE_NANOS, TimeUnit.NANOSECONDS)) == null) {
+                            wake();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    while (event == null) {
+                        event = lane.queue.poll();
+                        if (event != null) {
+                            dropped.incrementAndGet();
+                        } else {
+                            // Every slot is being written, or was just released by the writer thread.
+                            Thread.onSpinWait();
+                            event = lane.free.poll();
+                        }
+                    }
+                    break;
+                default:
+                    dropped.incrementAndGet();
+                    return;
+            }
+        }
+
+        event.set(logger, level, timestamp, shortMessage, template, arguments, fullMessage,
+                keyValuePairs, additionalFields);
+        lane.queue.offer(event);
+
+        if (idle) {
+            wake();
+        }
+    }
+
+    /**
+     * Writes the queued records, and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // The JVM is exiting, and the hook closes the lanes too.
+            }
+        }
+
+        closed = true;
+        wake();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        // Records queued while the writer thread was stopping, or by log calls that saw the lanes still open. A
+        // call that increments the count after it is seen as zero also sees that the lanes are closed, and writes
+        // its record itself.
+        while (true) {
+            boolean quiet = offering.get() == 0;
+            for (Lane lane : lanes) {
+                LogEvent event;
+                while ((event = lane.queue.poll()) != null) {
+                    write(lane, event, true);
+                }
+            }
+            if (quiet) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Writes a queued record, and empties its slot. A record that fails to encode, even with an {@link Error}, e.g.
+     * from the <code>toString()</code> of a value, is dropped, so that the lanes keep being drained.
+     *
+     * @return Whether the record was written.
+     */
+    private boolean write(Lane lane, LogEvent event, boolean flush) {
+        try {
+            event.logger.write(event, flush);
+            return true;
+        } catch (Throwable e) {
+            dropped.incrementAndGet();
+            return false;
+        } finally {
+            lane.recycle(event);
+        }
+    }
+
+    private void wake() {
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Body of the writer thread.
+     */
+    private void drain() {
+        // Sinks written to since the last flush, flushed when the lanes run empty.
+        List<ChillogLogger> unflushed = new ArrayList<>();
+        while (true) {
+            LogEvent event = null;
+            Lane lane = null;
+            for (Lane candidate : lanes) {
+                event = candidate.queue.poll();
+                if (event != null) {
+                    lane = candidate;
+                    break;
+                }
+            }
+
+            if (event != null) {
+                ChillogLogger logger = event.logger;
+                if (write(lane, event, lane.flushImmediately) && !lane.flushImmediately
+                        && !unflushed.contains(logger)) {
+                    unflushed.add(logger);
+                }
+                continue;
+            }
+
+            for (ChillogLogger logger : unflushed) {
+                try {
+                    logger.flushSink();
+                } catch (Throwable e) {
+                    // The sink keeps the records, or counts them as dropped.
+                }
+            }
+            unflushed.clear();
+
+            if (closed) {
+                return;
+            }
+
+            idle = true;
+            if (isEmpty()) {
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+            idle = false;
+        }
+    }
+
+    private boolean isEmpty() {
+        for (Lane lane : lanes) {
+            if (!lane.queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Queue for the records of a range of levels.
+     */
+    public static final class Lane {
+        private final Chillog.Level level;
+        private final int capacity;
+        private final Overflow overflow;
+        private boolean flushImmediately;
+
+        /**
+         * Filled slots, in the order they are written.
+         */
+        private ArrayBlockingQueue<LogEvent> queue;
+
+        /**
+         * Empty slots. Together with the queue and the slot being written, they are all the slots of the lane.
+         */
+        private ArrayBlockingQueue<LogEvent> free;
+
+        private Lane(Chillog.Level level, int capacity, Overflow overflow) {
+            if (level == null || overflow == null) {
+                throw new IllegalArgumentException("level and overflow must not be null");
+            }
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity must be positive");
+            }
+            this.level = level;
+            this.capacity = capacity;
+            this.overflow = overflow;
+        }
+
+        /**
+         * Flushes the sink after every record of this lane, instead of in batches.
+         *
+         * @return This lane.
+         */
+        public Lane flushImmediately() {
+            this.flushImmediately = true;
+            return this;
+        }
+
+        private void allocate() {
+            queue = new ArrayBlockingQueue<>(capacity);
+            free = new ArrayBlockingQueue<>(capacity);
+            for (int i = 0; i < capacity; i++) {
+                free.add(new LogEvent());
+            }
+        }
+
+        /**
+         * Empties a written slot, and makes it available again.
+         */
+        private void recycle(LogEvent event) {
+            event.clear();
+            free.offer(event);
+        }
+    }
+
+    /**
+     * Builder of {@link ChillogLanes}.
+     */
+    public static final class Builder {
+        private final List<Lane> lanes = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a lane. Without lanes, ERROR and above block when full and are flushed immediately, WARNING and NOTICE
+         * block when full, and INFORMATIONAL and DEBUG are dropped when full.
+         *
+         * @param lane The {@link Lane}.
+         * @return This builder.
+         */
+        public Builder lane(Lane lane) {
+            lanes.add(lane);
+            return this;
+        }
+
+        /**
+         * Creates the lanes, and starts their writer thread.
+         *
+         * @return New {@link ChillogLanes}.
+         */
+        public ChillogLanes build() {
+            return new ChillogLanes(this);
+        }
+    }
+}
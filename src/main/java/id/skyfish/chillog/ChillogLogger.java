@@ -0,0 +1,1614 @@
+package id.skyfish.chillog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Chillog logger instance.
+ * <p>
+ * Each instance has its own {@link ChillogSink}, severity threshold and fixed fields. The fixed part of every record
+ * (version, host, service and fixed fields) is encoded once into a byte prefix, so a log call only encodes what
+ * differs between records. Instances are created with {@link #builder()}, and are thread-safe.
+ * <p>
+ * The threshold, sink and buffers set on the builder can be replaced while the logger runs, with
+ * {@link #configure(ChillogConfig)}. They are kept in an immutable snapshot, so a log call reads them with a single
+ * volatile read and takes no lock.
+ * <p>
+ * Named loggers, obtained with {@link #getLogger(String)}, print the same records with their name as the
+ * <code>_logger</code> field, and can have their own threshold, set for their name or a prefix of it.
+ * <p>
+ * The static methods of {@link Chillog} delegate to a default instance.
+ */
+public final class ChillogLogger {
+
+    private static final int INITIAL_CAPACITY = 512;
+
+    private static final int DIRECT_CAPACITY = 4096;
+
+    private static final int BATCH_CAPACITY = 16 * 1024;
+
+    /**
+     * Batches of more events than this are encoded in parallel, in chunks of {@link #PARALLEL_CHUNK_SIZE} events.
+     */
+    private static final int PARALLEL_BATCH_SIZE = 8192;
+
+    static final int PARALLEL_CHUNK_SIZE = 2048;
+
+    /**
+     * Number of chunks of a parallel batch encoded ahead of the one being written, which bounds the memory a batch
+     * takes, whatever its size.
+     */
+    static final int PARALLEL_CHUNKS_AHEAD = Math.max(2, 2 * ForkJoinPool.getCommonPoolParallelism());
+
+    private static final byte[] SHORT_MESSAGE = bytes("\"short_message\":");
+    private static final byte[] LEVEL = bytes("\"level\":");
+    private static final byte[] TIMESTAMP = bytes(",\"timestamp\":");
+    private static final byte[] FULL_MESSAGE = bytes(",\"full_message\":");
+    private static final byte[] NULL_VALUE = bytes("\"NULL\"");
+    private static final byte[] TRUE_VALUE = bytes("\"true\"");
+    private static final byte[] FALSE_VALUE = bytes("\"false\"");
+    private static final byte[] TRUNCATED = bytes(",\"_truncated\":\"true\"");
+
+    /**
+     * Most bytes written after the short message: the level and timestamp fields.
+     */
+    private static final int REQUIRED_FIELDS_SIZE = 1 + LEVEL.length + 1 + TIMESTAMP.length + 20;
+
+    /**
+     * Levels of nested objects that are flattened into fields, e.g. 2 for <code>_order.customer.name</code>.
+     */
+    private static final int MAX_PROPERTY_DEPTH = 4;
+
+    /**
+     * Per-thread encoding buffer, shared by all instances.
+     */
+    private static final ThreadLocal<JsonWriter> WRITERS =
+            ThreadLocal.withInitial(() -> new JsonWriter(INITIAL_CAPACITY));
+
+    private final String serviceName;
+
+    /**
+     * The name of this logger, or null for the logger created by the builder.
+     */
+    private final String name;
+
+    /**
+     * The logger created by the builder: this one, or the one this named logger was obtained from.
+     */
+    private final ChillogLogger root;
+
+    /**
+     * The named loggers obtained from this logger, by name. Null in named loggers.
+     */
+    private final ConcurrentMap<String, ChillogLogger> named;
+
+    private final String[] fixedKeys;
+    private final String[] fixedValues;
+
+    /**
+     * Maximum lengths of values, in characters, and of records, in bytes.
+     */
+    private final int maxShortMessageLength;
+    private final int maxFullMessageLength;
+    private final int maxFieldLength;
+    private final int maxRecordSize;
+
+    /**
+     * The settings of the builder, which those of a {@link ChillogConfig} override.
+     */
+    private final Settings initial;
+
+    /**
+     * The settings in effect. Replaced as a whole when the logger is configured.
+     */
+    private volatile Settings settings;
+
+    /**
+     * Aggregation of matched records, or null.
+     */
+    private final ChillogMetrics metrics;
+
+    /**
+     * Queues that records are written from on a background thread, or null to write them on the calling thread.
+     */
+    private final ChillogLanes lanes;
+
+    /**
+     * The encoded prefix. Replaced when the hostname changes.
+     */
+    private volatile Prefix prefix;
+
+    private ChillogLogger(Builder builder) {
+        this.serviceName = builder.serviceName;
+        this.name = null;
+        this.root = this;
+        this.named = new ConcurrentHashMap<>();
+        this.fixedKeys = builder.fields.keySet().toArray(new String[0]);
+        this.fixedValues = builder.fields.values().toArray(new String[0]);
+        this.maxShortMessageLength = builder.maxShortMessageLength;
+        this.maxFullMessageLength = builder.maxFullMessageLength;
+        this.maxFieldLength = builder.maxFieldLength;
+        this.maxRecordSize = builder.maxRecordSize;
+        this.initial = new Settings(ChillogConfig.EMPTY, builder.threshold, new HashMap<>(builder.levels),
+                builder.sink, null, builder.directBuffers, directWriters(builder.directBuffers),
+                Collections.emptyMap());
+        this.settings = initial;
+        this.metrics = builder.metrics;
+        this.lanes = builder.lanes;
+        this.prefix = compilePrefix(Hostname.get());
+    }
+
+    /**
+     * Creates a named logger, which shares everything with the root logger but its threshold and its
+     * <code>_logger</code> fixed field.
+     */
+    private ChillogLogger(ChillogLogger root, String name) {
+        this.serviceName = root.serviceName;
+        this.name = name;
+        this.root = root;
+        this.named = null;
+        if (root.isFixed("logger")) {
+            this.fixedKeys = root.fixedKeys;
+            this.fixedValues = root.fixedValues;
+        } else {
+            this.fixedKeys = Arrays.copyOf(root.fixedKeys, root.fixedKeys.length + 1);
+            this.fixedValues = Arrays.copyOf(root.fixedValues, root.fixedValues.length + 1);
+            fixedKeys[fixedKeys.length - 1] = "logger";
+            fixedValues[fixedValues.length - 1] = name;
+        }
+        this.maxShortMessageLength = root.maxShortMessageLength;
+        this.maxFullMessageLength = root.maxFullMessageLength;
+        this.maxFieldLength = root.maxFieldLength;
+        this.maxRecordSize = root.maxRecordSize;
+        this.initial = root.initial;
+        this.settings = root.settings.forName(name);
+        this.metrics = root.metrics;
+        this.lanes = root.lanes;
+        this.prefix = compilePrefix(Hostname.get());
+    }
+
+    /**
+     * Creates a builder for a new logger.
+     *
+     * @return A new {@link Builder}.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Checks whether records with the given severity pass the threshold of this logger.
+     *
+     * @param level The severity {@link Chillog.Level} to check.
+     * @return <code>true</code> if records of this severity will be written.
+     */
+    public boolean isEnabled(Chillog.Level level) {
+        return level.getValue() <= settings.threshold.getValue();
+    }
+
+    /**
+     * Gets a named logger, e.g. named after the class that uses it. Its records have the name as the
+     * <code>_logger</code> field, encoded once. Its threshold is the one set for the longest prefix of its name,
+     * cut at a dot or a dollar sign, if any, and the threshold of this logger otherwise. It is resolved when the
+     * named logger is created and when the settings change, so checking it costs the same as for this logger.
+     * <p>
+     * Named loggers are cached, and share the sink, buffers and configuration of the logger they were obtained from.
+     * Getting a named logger from a named logger gets it from that same logger: names are not relative.
+     *
+     * @param name The name of the logger, e.g. <code>com.example.payments.Gateway</code>.
+     * @return The named {@link ChillogLogger}.
+     */
+    public ChillogLogger getLogger(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name must not be null");
+        }
+        if (root != this) {
+            return root.getLogger(name);
+        }
+
+        ChillogLogger logger = named.get(name);
+        if (logger == null) {
+            // Not while the settings are being replaced, or the new logger could miss them.
+            synchronized (this) {
+                logger = named.computeIfAbsent(name, key -> new ChillogLogger(this, key));
+            }
+        }
+        return logger;
+    }
+
+    /**
+     * Gets the name of this logger.
+     *
+     * @return The name given to {@link #getLogger(String)}, or null for a logger created by a builder.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Replaces the settings of this logger with those of a configuration. Settings that the configuration does not
+     * give are reset to the ones of the builder. The named loggers obtained from the same logger are configured
+     * together.
+     * <p>
+     * A sink opened for a previous configuration is closed once it is replaced and the records that were being
+     * written to it are done.
+     *
+     * @param config The {@link ChillogConfig} to apply.
+     * @throws IOException If the sink of the configuration cannot be opened. The settings are then unchanged.
+     */
+    public synchronized void configure(ChillogConfig config) throws IOException {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+        if (root != this) {
+            root.configure(config);
+            return;
+        }
+
+        Settings current = settings;
+
+        ChillogSink sink;
+        SinkLease lease;
+        if (config.sink == null) {
+            sink = initial.sink;
+            lease = null;
+        } else if (current.lease != null && current.config.hasSameSink(config)) {
+            sink = current.sink;
+            lease = current.lease;
+        } else {
+            sink = config.openSink();
+            lease = new SinkLease(sink);
+        }
+
+        int directBuffers = config.directBuffers >= 0 ? config.directBuffers : initial.directBuffers;
+        WriterPool directWriters = directBuffers == current.directBuffers
+                ? current.directWriters
+                : directWriters(directBuffers);
+
+        Map<String, Sampler> samplers = new HashMap<>();
+        for (Map.Entry<String, Integer> rate : config.sampleRates.entrySet()) {
+            samplers.put(rate.getKey(), new Sampler(rate.getValue()));
+        }
+
+        Map<String, Chillog.Level> levels = new HashMap<>(initial.levels);
+        levels.putAll(config.levels);
+
+        Settings next = new Settings(config, config.level != null ? config.level : initial.threshold, levels, sink,
+                lease, directBuffers, directWriters, samplers);
+        settings = next;
+        for (ChillogLogger logger : named.values()) {
+            logger.settings = next.forName(logger.name);
+        }
+
+        if (current.lease != null && current.lease != lease) {
+            // Closed by the last write that still holds it.
+            current.lease.release();
+        }
+    }
+
+    private static WriterPool directWriters(int poolSize) {
+        return poolSize > 0 ? new WriterPool(poolSize, DIRECT_CAPACITY) : null;
+    }
+
+    /**
+     * Holds the sink of the given settings open until {@link #releaseSink(Settings)}, see {@link SinkLease}.
+     *
+     * @return The settings to write with: the given ones, or the latest ones if their sink was closed since they
+     * were loaded.
+     */
+    private Settings acquireSink(Settings current) {
+        while (current.lease != null && !current.lease.acquire()) {
+            current = settings;
+        }
+        return current;
+    }
+
+    private static void releaseSink(Settings current) {
+        if (current.lease != null) {
+            current.lease.release();
+        }
+    }
+
+    /**
+     * Logs a short message with "action must be taken immediately" severity.
+     *
+     * @param shortMessage Short message to print.
+     */
+    public void alert(String shortMessage) {
+        log(Chillog.Level.ALERT, shortMessage, null, Chillog.EMPTY_PAIRS);
+    }
+
+    /**
+     * Logs a short message with "critical conditions" severity.
+     *
+     * @param shortMessage Short message to print.
+     */
+    public void critical(String shortMessage) {
+        log(Chillog.Level.CRITICAL, shortMessage, null, Chillog.EMPTY_PAIRS);
+    }
+
+    /**
+     * Logs a short message with "error conditions" severity.
+     *
+     * @param shortMessage Short message to print.
+     */
+    public void error(String shortMessage) {
+        log(Chillog.Level.ERROR, shortMessage, null, Chillog.EMPTY_PAIRS);
+    }
+
+    /**
+     * Logs a short message with "warning conditions" severity.
+     *
+     * @param shortMessage Short message to print.
+     */
+    public void warning(String shortMessage) {
+        log(Chillog.Level.WARNING, shortMessage, null, Chillog.EMPTY_PAIRS);
+    }
+
+    /**
+     * Logs a short message with "normal but significant condition" severity.
+     *
+     * @param shortMessage Short message to print.
+     */
+    public void notice(String shortMessage) {
+        log(Chillog.Level.NOTICE, shortMessage, null, Chillog.EMPTY_PAIRS);
+    }
+
+    /**
+     * Logs a short message with "informational messages" severity.
+     *
+     * @param shortMessage Short message to print.
+     */
+    public void info(String shortMessage) {
+        log(Chillog.Level.INFORMATIONAL, shortMessage, null, Chillog.EMPTY_PAIRS);
+    }
+
+    /**
+     * Logs a short message with "debug-level messages" severity.
+     *
+     * @param shortMessage Short message to print.
+     */
+    public void debug(String shortMessage) {
+        log(Chillog.Level.DEBUG, shortMessage, null, Chillog.EMPTY_PAIRS);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Logs a message with "action must be taken immediately" severity.
+     *
+     * @param shortMessage  Short message that describe the event.
+     * @param fullMessage   More-detailed message.
+     * @param keyValuePairs Varargs that will be used as additional information, formatted as a key-value pairs.
+     * @see Chillog#alert(String, String, String...)
+     */
+    public void alert(String shortMessage, String fullMessage, String... keyValuePairs) {
+        log(Chillog.Level.ALERT, shortMessage, fullMessage, keyValuePairs);
+    }
+
+    /**
+     * Logs a message with "critical conditions" severity.
+     *
+     * @param shortMessage  Short message that describe the event.
+     * @param fullMessage   More-detailed message.
+     * @param keyValuePairs Varargs that will be used as additional information, formatted as a key-value pairs.
+     * @see Chillog#critical(String, String, String...)
+     */
+    public void critical(String shortMessage, String fullMessage, String... keyValuePairs) {
+        log(Chillog.Level.CRITICAL, shortMessage, fullMessage, keyValuePairs);
+    }
+
+    /**
+     * Logs a message with "error conditions" severity.
+     *
+     * @param shortMessage  Short message that describe the event.
+     * @param fullMessage   More-detailed message.
+     * @param keyValuePairs Varargs that will be used as additional information, formatted as a key-value pairs.
+     * @see Chillog#error(String, String, String...)
+     */
+    public void error(String shortMessage, String fullMessage, String... keyValuePairs) {
+        log(Chillog.Level.ERROR, shortMessage, fullMessage, keyValuePairs);
+    }
+
+    /**
+     * Logs a message with "warning conditions" severity.
+     *
+     * @param shortMessage  Short message that describe the event.
+     * @param fullMessage   More-detailed message.
+     * @param keyValuePairs Varargs that will be used as additional information, formatted as a key-value pairs.
+     * @see Chillog#warning(String, String, String...)
+     */
+    public void warning(String shortMessage, String fullMessage, String... keyValuePairs) {
+        log(Chillog.Level.WARNING, shortMessage, fullMessage, keyValuePairs);
+    }
+
+    /**
+     * Logs a message with "normal but significant condition" severity.
+     *
+     * @param shortMessage  Short message that describe the event.
+     * @param fullMessage   More-detailed message.
+     * @param keyValuePairs Varargs that will be used as additional information, formatted as a key-value pairs.
+     * @see Chillog#notice(String, String, String...)
+     */
+    public void notice(String shortMessage, String fullMessage, String... keyValuePairs) {
+        log(Chillog.Level.NOTICE, shortMessage, fullMessage, keyValuePairs);
+    }
+
+    /**
+     * Logs a message with "informational messages" severity.
+     *
+     * @param shortMessage  Short message that describe the event.
+     * @param fullMessage   More-detailed message.
+     * @param keyValuePairs Varargs that will be used as additional information, formatted as a key-value pairs.
+     * @see Chillog#info(String, String, String...)
+     */
+    public void info(String shortMessage, String fullMessage, String... keyValuePairs) {
+        log(Chillog.Level.INFORMATIONAL, shortMessage, fullMessage, keyValuePairs);
+    }
+
+    /**
+     * Logs a message with "debug-level messages" severity.
+     *
+     * @param shortMessage  Short message that describe the event.
+     * @param fullMessage   More-detailed message.
+     * @param keyValuePairs Varargs that will be used as additional information, formatted as a key-value pairs.
+     * @see Chillog#debug(String, String, String...)
+     */
+    public void debug(String shortMessage, String fullMessage, String... keyValuePairs) {
+        log(Chillog.Level.DEBUG, shortMessage, fullMessage, keyValuePairs);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Logs a message with "action must be taken immediately" severity.
+     *
+     * @param shortMessage     Short message that describe the event.
+     * @param fullMessage      More-detailed message.
+     * @param additionalFields Map of String to Object, printed alongside the message.
+     * @see Chillog#alert(String, String, Map)
+     */
+    public void alert(String shortMessage, String fullMessage, Map<String, Object> additionalFields) {
+        log(Chillog.Level.ALERT, shortMessage, fullMessage, additionalFields);
+    }
+
+    /**
+     * Logs a message with "critical conditions" severity.
+     *
+     * @param shortMessage     Short message that describe the event.
+     * @param fullMessage      More-detailed message.
+     * @param additionalFields Map of String to Object, printed alongside the message.
+     * @see Chillog#critical(String, String, Map)
+     */
+    public void critical(String shortMessage, String fullMessage, Map<String, Object> additionalFields) {
+        log(Chillog.Level.CRITICAL, shortMessage, fullMessage, additionalFields);
+    }
+
+    /**
+     * Logs a message with "error conditions" severity.
+     *
+     * @param shortMessage     Short message that describe the event.
+     * @param fullMessage      More-detailed message.
+     * @param additionalFields Map of String to Object, printed alongside the message.
+     * @see Chillog#error(String, String, Map)
+     */
+    public void error(String shortMessage, String fullMessage, Map<String, Object> additionalFields) {
+        log(Chillog.Level.ERROR, shortMessage, fullMessage, additionalFields);
+    }
+
+    /**
+     * Logs a message with "warning conditions" severity.
+     *
+     * @param shortMessage     Short message that describe the event.
+     * @param fullMessage      More-detailed message.
+     * @param additionalFields Map of String to Object, printed alongside the message.
+     * @see Chillog#warning(String, String, Map)
+     */
+    public void warning(String shortMessage, String fullMessage, Map<String, Object> additionalFields) {
+        log(Chillog.Level.WARNING, shortMessage, fullMessage, additionalFields);
+    }
+
+    /**
+     * Logs a message with "normal but significant condition" severity.
+     *
+     * @param shortMessage     Short message that describe the event.
+     * @param fullMessage      More-detailed message.
+     * @param additionalFields Map of String to Object, printed alongside the message.
+     * @see Chillog#notice(String, String, Map)
+     */
+    public void notice(String shortMessage, String fullMessage, Map<String, Object> additionalFields) {
+        log(Chillog.Level.NOTICE, shortMessage, fullMessage, additionalFields);
+    }
+
+    /**
+     * Logs a message with "informational messages" severity.
+     *
+     * @param shortMessage     Short message that describe the event.
+     * @param fullMessage      More-detailed message.
+     * @param additionalFields Map of String to Object, printed alongside the message.
+     * @see Chillog#info(String, String, Map)
+     */
+    public void info(String shortMessage, String fullMessage, Map<String, Object> additionalFields) {
+        log(Chillog.Level.INFORMATIONAL, shortMessage, fullMessage, additionalFields);
+    }
+
+    /**
+     * Logs a message with "debug-level messages" severity.
+     *
+     * @param shortMessage     Short message that describe the event.
+     * @param fullMessage      More-detailed message.
+     * @param additionalFields Map of String to Object, printed alongside the message.
+     * @see Chillog#debug(String, String, Map)
+     */
+    public void debug(String shortMessage, String fullMessage, Map<String, Object> additionalFields) {
+        log(Chillog.Level.DEBUG, shortMessage, fullMessage, additionalFields);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Logs a short message built from a template, with "action must be taken immediately" severity. The message is
+     * only formatted if the record is printed.
+     *
+     * @param template  The parsed short message, see {@link Chillog#template(String)}.
+     * @param arguments Values for the placeholders of the template.
+     */
+    public void alert(ChillogTemplate template, Object... arguments) {
+        dispatch(Chillog.Level.ALERT, null, template, arguments, null, null, Chillog.EMPTY_PAIRS);
+    }
+
+    /**
+     * Logs a short message built from a template, with "critical conditions" severity. The message is only formatted
+     * if the record is printed.
+     *
+     * @param template  The parsed short message, see {@link Chillog#template(String)}.
+     * @param arguments Values for the placeholders of the template.
+     */
+    public void critical(ChillogTemplate template, Object... arguments) {
+        dispatch(Chillog.Level.CRITICAL, null, template, arguments, null, null, Chillog.EMPTY_PAIRS);
+    }
+
+    /**
+     * Logs a short message built from a template, with "error conditions" severity. The message is only formatted if
+     * the record is printed.
+     *
+     * @param template  The parsed short message, see {@link Chillog#template(String)}.
+     * @param arguments Values for the placeholders of the template.
+     */
+    public void error(ChillogTemplate template, Object... arguments) {
+        dispatch(Chillog.Level.ERROR, null, template, arguments, null, null, Chillog.EMPTY_PAIRS);
+    }
+
+    /**
+     * Logs a short message built from a template, with "warning conditions" severity. The message is only formatted
+     * if the record is printed.
+     *
+     * @param template  The parsed short message, see {@link Chillog#template(String)}.
+     * @param arguments Values for the placeholders of the template.
+     */
+    public void warning(ChillogTemplate template, Object... arguments) {
+        dispatch(Chillog.Level.WARNING, null, template, arguments, null, null, Chillog.EMPTY_PAIRS);
+    }
+
+    /**
+     * Logs a short message built from a template, with "normal but significant condition" severity. The message is
+     * only formatted if the record is printed.
+     *
+     * @param template  The parsed short message, see {@link Chillog#template(String)}.
+     * @param arguments Values for the placeholders of the template.
+     */
+    public void notice(ChillogTemplate template, Object... arguments) {
+        dispatch(Chillog.Level.NOTICE, null, template, arguments, null, null, Chillog.EMPTY_PAIRS);
+    }
+
+    /**
+     * Logs a short message built from a template, with "informational messages" severity. The message is only
+     * formatted if the record is printed.
+     *
+     * @param template  The parsed short message, see {@link Chillog#template(String)}.
+     * @param arguments Values for the placeholders of the template.
+     */
+    public void info(ChillogTemplate template, Object... arguments) {
+        dispatch(Chillog.Level.INFORMATIONAL, null, template, arguments, null, null, Chillog.EMPTY_PAIRS);
+    }
+
+    /**
+     * Logs a short message built from a template, with "debug-level messages" severity. The message is only
+     * formatted if the record is printed.
+     *
+     * @param template  The parsed short message, see {@link Chillog#template(String)}.
+     * @param arguments Values for the placeholders of the template.
+     */
+    public void debug(ChillogTemplate template, Object... arguments) {
+        dispatch(Chillog.Level.DEBUG, null, template, arguments, null, null, Chillog.EMPTY_PAIRS);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Logs a batch of events, in order, e.g. the records of one loop of a batch job.
+     * <p>
+     * The events are encoded back to back into one buffer, with one clock read for the whole batch, and handed to the
+     * sink with one write per run of events of the same severity, of up to 64 KiB. Each event passes the metrics,
+     * sampling and threshold of this logger like a single call does. Batches of more than 8192 events are encoded in
+     * parallel, in chunks, on the common fork/join pool, and still written in order: each chunk as soon as it is
+     * encoded, with a bounded number of chunks encoded ahead.
+     * <p>
+     * Batches are written on the calling thread: they are neither queued in the lanes of this logger nor buffered by
+     * a {@link ChillogScope}.
+     *
+     * @param events The events. Null elements are skipped.
+     */
+    public void logAll(Collection<ChillogEvent> events) {
+        if (events.size() > PARALLEL_BATCH_SIZE) {
+            logAllParallel(events.toArray(new ChillogEvent[0]));
+        } else {
+            logAll(events.iterator());
+        }
+    }
+
+    /**
+     * Logs a stream of events, in encounter order. See {@link #logAll(Collection)}: the events are consumed one by
+     * one, and written whenever 64 KiB of records are encoded, so the stream does not have to fit in memory.
+     *
+     * @param events The events. Null elements are skipped.
+     */
+    public void logAll(Stream<ChillogEvent> events) {
+        logAll(events.iterator());
+    }
+
+    private void logAll(Iterator<ChillogEvent> events) {
+        Settings current = acquireSink(settings);
+        try {
+            byte[] prefixBytes = prefix().bytes;
+            long timestamp = System.currentTimeMillis();
+
+            RecordBatch batch = new RecordBatch(BATCH_CAPACITY);
+            boolean written = false;
+            while (events.hasNext()) {
+                if (encode(current, batch, prefixBytes, events.next(), timestamp) && batch.isFull()) {
+                    batch.writeTo(current.sink);
+                    written = true;
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                batch.writeTo(current.sink);
+                written = true;
+            }
+            if (written) {
+                current.sink.flush();
+            }
+        } finally {
+            releaseSink(current);
+        }
+    }
+
+    /**
+     * Encodes chunks of a large batch on the common fork/join pool, and writes each one as soon as it and those before
+     * it are encoded. At most {@link #PARALLEL_CHUNKS_AHEAD} chunks are encoded ahead of the one being written. Once a
+     * chunk fails, no more chunks are started, and those being encoded stop.
+     */
+    private void logAllParallel(ChillogEvent[] events) {
+        Settings current = acquireSink(settings);
+        try {
+            byte[] prefixBytes = prefix().bytes;
+            long timestamp = System.currentTimeMillis();
+
+            int chunks = (events.length + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+            ArrayDeque<CompletableFuture<RecordBatch>> encoding = new ArrayDeque<>();
+            // Index of the first chunk that failed: the chunks after it stop, as they are not written.
+            AtomicInteger firstFailed = new AtomicInteger(Integer.MAX_VALUE);
+            int next = 0;
+            for (int written = 0; written < chunks; written++) {
+                while (next < chunks && encoding.size() <= PARALLEL_CHUNKS_AHEAD) {
+                    int chunk = next++;
+                    encoding.add(CompletableFuture.supplyAsync(() -> {
+                        RecordBatch batch = new RecordBatch(BATCH_CAPACITY);
+                        int start = chunk * PARALLEL_CHUNK_SIZE;
+                        int end = Math.min(events.length, start + PARALLEL_CHUNK_SIZE);
+                        try {
+                            for (int i = start; i < end && firstFailed.get() > chunk; i++) {
+                                encode(current, batch, prefixBytes, events[i], timestamp);
+                            }
+                        } catch (RuntimeException | Error e) {
+                            firstFailed.accumulateAndGet(chunk, Math::min);
+                            throw e;
+                        }
+                        return batch;
+                    }));
+                }
+
+                RecordBatch batch;
+                try {
+                    batch = encoding.remove().join();
+                } catch (CompletionException e) {
+                    firstFailed.accumulateAndGet(written, Math::min);
+                    for (CompletableFuture<RecordBatch> pending : encoding) {
+                        pending.cancel(false);
+                    }
+
+                    // Fails like the sequential encoding does, e.g. with what the toString() of a value threw.
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw e;
+                }
+                batch.writeTo(current.sink);
+            }
+            current.sink.flush();
+        } finally {
+            releaseSink(current);
+        }
+    }
+
+    /**
+     * Encodes an event of a batch, if it passes the metrics, sampling and threshold.
+     *
+     * @return Whether the event was encoded.
+     */
+    private boolean encode(Settings current, RecordBatch batch, byte[] prefixBytes, ChillogEvent event,
+                           long timestamp) {
+        if (event == null
+                || !isSampled(current, event.level, event.shortMessage, event.template, event.keyValuePairs,
+                event.additionalFields)
+                || event.level.getValue() > current.threshold.getValue()) {
+            return false;
+        }
+
+        JsonWriter writer = batch.writer;
+        writer.writeBytes(prefixBytes);
+        encodeBody(writer, event.level, timestamp, event.shortMessage, event.template, event.arguments,
+                event.fullMessage, event.keyValuePairs, event.additionalFields);
+        writer.writeByte((byte) '\n');
+        batch.endRecord(event.level);
+        return true;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Logs a message with the given severity, e.g. one bridged from another logging API.
+     */
+    void log(Chillog.Level level, String shortMessage, String fullMessage, String[] keyValuePairs) {
+        dispatch(level, shortMessage, null, null, fullMessage, keyValuePairs, null);
+    }
+
+    private void log(Chillog.Level level, String shortMessage, String fullMessage,
+                     Map<String, Object> additionalFields) {
+        dispatch(level, shortMessage, null, null, fullMessage, null, additionalFields);
+    }
+
+    /**
+     * Logs a message, if its severity passes the threshold.
+     * <p>
+     * Records matched by the {@link ChillogMetrics} of this logger are aggregated first, and dropped if they are not
+     * sampled, by the rule or by the configured rate of their key. The threshold is checked before the pairs are
+     * converted, so disabled severities cost almost nothing.
+     * Inside a {@link ChillogScope}, low-severity records are buffered as they are instead.
+     * <p>
+     * The short message is either <code>shortMessage</code>, or <code>template</code> with <code>arguments</code>.
+     * The additional fields are either <code>keyValuePairs</code> or <code>additionalFields</code>.
+     */
+    private void dispatch(Chillog.Level level, String shortMessage, ChillogTemplate template, Object[] arguments,
+                          String fullMessage, String[] keyValuePairs, Map<String, Object> additionalFields) {
+        Settings current = settings;
+        if (!isSampled(current, level, shortMessage, template, keyValuePairs, additionalFields)) {
+            return;
+        }
+
+        ChillogScope scope = ChillogScope.current();
+        if (scope != null && ChillogScope.buffers(level)) {
+            scope.capture(this, level, System.currentTimeMillis(), shortMessage, template, arguments, fullMessage,
+                    keyValuePairs, additionalFields);
+        } else if (level.getValue() <= current.threshold.getValue()) {
+            if (scope != null && ChillogScope.triggers(level)) {
+                scope.flush();
+            }
+
+            if (lanes != null) {
+                lanes.offer(this, level, System.currentTimeMillis(), shortMessage, template, arguments, fullMessage,
+                        keyValuePairs, additionalFields);
+                return;
+            }
+
+            write(current, level, System.currentTimeMillis(), shortMessage, template, arguments, fullMessage,
+                    keyValuePairs, additionalFields, true);
+        }
+    }
+
+    /**
+     * Aggregates a record in the metrics of this logger, and checks whether it is sampled, by the metrics rule or by
+     * the configured rate of its key.
+     *
+     * @return <code>false</code> if the record should be dropped.
+     */
+    private boolean isSampled(Settings current, Chillog.Level level, String shortMessage, ChillogTemplate template,
+                              String[] keyValuePairs, Map<String, Object> additionalFields) {
+        if (metrics != null) {
+            String key = template != null ? template.pattern() : shortMessage;
+            if (!metrics.observe(level, key, keyValuePairs, additionalFields)) {
+                return false;
+            }
+        }
+
+        if (!current.samplers.isEmpty()) {
+            Sampler sampler = current.samplers.get(template != null ? template.pattern() : shortMessage);
+            return sampler == null || sampler.sample();
+        }
+        return true;
+    }
+
+    /**
+     * Encodes a message and writes it to the sink of this logger.
+     *
+     * @param shortMessage     Short message about the event.
+     * @param fullMessage      More-detailed message about the event. Can be null.
+     * @param timestamp        Milliseconds passed since January 1st, 1970.
+     * @param level            The severity {@link Chillog.Level} of the event.
+     * @param additionalFields Additional information about the event.
+     */
+    void log(String shortMessage, String fullMessage, long timestamp,
+             Chillog.Level level, Map<String, Object> additionalFields) {
+        write(level, timestamp, shortMessage, null, null, fullMessage, null, additionalFields, true);
+    }
+
+    /**
+     * Encodes a deferred event and writes it to the sink of this logger.
+     */
+    void write(LogEvent event) {
+        write(event, true);
+    }
+
+    /**
+     * Encodes a deferred event and writes it to the sink of this logger.
+     *
+     * @param flush Whether to flush the sink afterwards, rather than leave it to the caller.
+     */
+    void write(LogEvent event, boolean flush) {
+        write(event.level, event.timestamp, event.shortMessage, event.template, event.arguments, event.fullMessage,
+                event.keyValuePairs, event.additionalFields, flush);
+    }
+
+    /**
+     * Flushes the sink of this logger, after records were written without flushing.
+     */
+    void flushSink() {
+        Settings current = acquireSink(settings);
+        try {
+            current.sink.flush();
+        } finally {
+            releaseSink(current);
+        }
+    }
+
+    /**
+     * Encodes a message and writes it to the sink of this logger, on the calling thread. The additional fields are
+     * either <code>keyValuePairs</code>, which are encoded without wrapping them, or <code>additionalFields</code>.
+     */
+    void write(Chillog.Level level, long timestamp, String shortMessage, ChillogTemplate template,
+               Object[] arguments, String fullMessage, String[] keyValuePairs, Map<String, Object> additionalFields,
+               boolean flush) {
+        write(settings, level, timestamp, shortMessage, template, arguments, fullMessage, keyValuePairs,
+                additionalFields, flush);
+    }
+
+    /**
+     * Encodes a message and writes it with the given settings, loaded once by the caller.
+     */
+    private void write(Settings loaded, Chillog.Level level, long timestamp, String shortMessage,
+                       ChillogTemplate template, Object[] arguments, String fullMessage, String[] keyValuePairs,
+                       Map<String, Object> additionalFields, boolean flush) {
+        Settings current = acquireSink(loaded);
+        try {
+            if (current.directWriters != null) {
+                writeDirect(current.directWriters, current.sink, level, timestamp, shortMessage, template, arguments,
+                        fullMessage, keyValuePairs, additionalFields, flush);
+            } else {
+                writeHeap(current.sink, level, timestamp, shortMessage, template, arguments, fullMessage,
+                        keyValuePairs, additionalFields, flush);
+            }
+        } finally {
+            releaseSink(current);
+        }
+    }
+
+    /**
+     * Encodes a message into the per-thread heap buffer, and writes it to the sink.
+     */
+    private void writeHeap(ChillogSink sink, Chillog.Level level, long timestamp, String shortMessage,
+                           ChillogTemplate template, Object[] arguments, String fullMessage, String[] keyValuePairs,
+                           Map<String, Object> additionalFields, boolean flush) {
+        JsonWriter writer = WRITERS.get();
+        if (writer.inUse) {
+            // Logging from within the encoding of another record on this thread.
+            writer = new JsonWriter(INITIAL_CAPACITY);
+        }
+
+        writer.inUse = true;
+        try {
+            writer.reset();
+            writer.writeBytes(prefix().bytes);
+            encodeBody(writer, level, timestamp, shortMessage, template, arguments, fullMessage, keyValuePairs,
+                    additionalFields);
+            writer.writeByte((byte) '\n');
+            sink.write(level, writer.flip());
+            if (flush) {
+                sink.flush();
+            }
+        } finally {
+            writer.inUse = false;
+        }
+    }
+
+    /**
+     * Encodes the event part of a message into a pooled direct buffer, and writes it to the sink together with the
+     * encoded prefix, without copying either.
+     */
+    private void writeDirect(WriterPool directWriters, ChillogSink sink, Chillog.Level level, long timestamp,
+                             String shortMessage, ChillogTemplate template, Object[] arguments, String fullMessage,
+                             String[] keyValuePairs, Map<String, Object> additionalFields, boolean flush) {
+        ByteBuffer header = prefix().header;
+        JsonWriter writer = directWriters.acquire();
+        try {
+            encodeBody(writer, level, timestamp, shortMessage, template, arguments, fullMessage, keyValuePairs,
+                    additionalFields);
+            writer.writeByte((byte) '\n');
+            sink.write(level, header, writer.flip());
+            if (flush) {
+                sink.flush();
+            }
+        } finally {
+            directWriters.release(writer);
+        }
+    }
+
+    /**
+     * Generates a JSON string that conforms with the Chillog Logging Format v1.
+     *
+     * @see Chillog#generateJsonString(String, String, long, Chillog.Level, Map)
+     */
+    String generateJsonString(String shortMessage, String fullMessage, long timestamp, Chillog.Level level,
+                              Map<String, Object> additionalFields) {
+        JsonWriter writer = new JsonWriter(INITIAL_CAPACITY);
+        writer.writeBytes(prefix().bytes);
+        encodeBody(writer, level, timestamp, shortMessage, null, null, fullMessage, null, additionalFields);
+        return writer.toString();
+    }
+
+    /**
+     * Encodes the part of a record that follows the prefix, without the trailing line feed.
+     * <p>
+     * Values longer than their maximum length are cut as they are written. The short and full messages are also cut
+     * where they would take the record past its maximum size, and additional fields that would are left out. Either
+     * adds a <code>_truncated</code> field.
+     */
+    private void encodeBody(JsonWriter writer, Chillog.Level level, long timestamp, String shortMessage,
+                            ChillogTemplate template, Object[] arguments, String fullMessage,
+                            String[] keyValuePairs, Map<String, Object> additionalFields) {
+        writer.truncated = false;
+
+        // Where the record must end, leaving room for the marker, the closing brace and the line feed.
+        int limit = writer.size() + maxRecordSize - prefix.bytes.length - TRUNCATED.length - 2;
+
+        /*
+         * Required fields
+         */
+
+        if (template != null) {
+            writer.writeBytes(SHORT_MESSAGE);
+            writer.writeByte((byte) '"');
+            writer.limitValue(maxShortMessageLength, limit - REQUIRED_FIELDS_SIZE - 1);
+            template.writeTo(writer, arguments);
+            writer.endValue();
+            writer.writeByte((byte) '"');
+            writer.writeByte((byte) ',');
+        } else if (shortMessage != null) {
+            writer.writeBytes(SHORT_MESSAGE);
+            writer.writeString(shortMessage, maxShortMessageLength, limit - REQUIRED_FIELDS_SIZE);
+            writer.writeByte((byte) ',');
+        }
+
+        writer.writeBytes(LEVEL);
+        writer.writeLong(level.getValue());
+        writer.writeBytes(TIMESTAMP);
+        writer.writeLong(timestamp);
+
+        /*
+         * Optional fields
+         */
+
+        if (fullMessage != null) {
+            writer.writeBytes(FULL_MESSAGE);
+            writer.writeString(fullMessage, maxFullMessageLength, limit);
+        }
+
+        if (keyValuePairs != null) {
+            FieldList.Dedupe dedupe = writer.dedupe();
+            int pairCount = FieldList.pairCount(keyValuePairs);
+            dedupe.mark(keyValuePairs, 2, pairCount, false);
+            for (int i = 0; i < pairCount; i++) {
+                if (dedupe.isPrinted(i) && !writeField(writer, limit, String.valueOf(keyValuePairs[i * 2]),
+                        FieldList.value(keyValuePairs, i))) {
+                    break;
+                }
+            }
+        } else if (additionalFields instanceof FieldList && ((FieldList) additionalFields).isUnmodified()) {
+            FieldList fields = (FieldList) additionalFields;
+            for (int i = 0, size = fields.size(); i < size; i++) {
+                if (!writeField(writer, limit, String.valueOf(fields.key(i)), fields.value(i))) {
+                    break;
+                }
+            }
+        } else if (additionalFields != null && additionalFields != Chillog.EMPTY_PAIRS) {
+            for (Map.Entry<String, Object> additionalField : additionalFields.entrySet()) {
+                if (!writeField(writer, limit, String.valueOf(additionalField.getKey()), additionalField.getValue())) {
+                    break;
+                }
+            }
+        }
+
+        if (writer.truncated) {
+            writer.writeBytes(TRUNCATED);
+        }
+        writer.writeByte((byte) '}');
+    }
+
+    /**
+     * Writes an additional field, and leaves it out if it takes the record past its maximum size.
+     *
+     * @param limit The size of the writer that the record must not exceed.
+     * @return <code>false</code> if the field was left out, and no more fields should be written.
+     */
+    private boolean writeField(JsonWriter writer, int limit, String key, Object value) {
+        int start = writer.size();
+        writeField(writer, key, value);
+        if (writer.size() > limit) {
+            writer.truncate(start);
+            writer.truncated = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes an additional field, unless a fixed field has the same key. Objects of classes annotated with
+     * {@link ChillogFields}, or registered with {@link Chillog#registerFields(Class)}, are written as one field per
+     * property.
+     */
+    private void writeField(JsonWriter writer, String key, Object value) {
+        if (value != null && !(value instanceof String)) {
+            ObjectFields properties = ObjectFields.of(value.getClass());
+            if (properties != null) {
+                writeProperties(writer, key, value, properties, 1);
+                return;
+            }
+        }
+
+        if (isFixed(key)) {
+            return;
+        }
+
+        writer.writeByte((byte) ',');
+        writeKey(writer, key);
+        writeValue(writer, value);
+    }
+
+    /**
+     * Writes the properties of an object as fields named <code>key.property</code>. Properties that are objects
+     * logged as fields themselves are flattened too, up to {@link #MAX_PROPERTY_DEPTH} levels.
+     */
+    private void writeProperties(JsonWriter writer, String key, Object object, ObjectFields properties, int depth) {
+        for (int i = 0; i < properties.size(); i++) {
+            String name = properties.name(i);
+            int start = writer.size();
+            try {
+                if (properties.kind(i) == ObjectFields.OBJECT) {
+                    Object value = properties.getObject(i, object);
+                    ObjectFields nested = value == null || value instanceof String || depth >= MAX_PROPERTY_DEPTH
+                            ? null
+                            : ObjectFields.of(value.getClass());
+                    if (nested != null) {
+                        writeProperties(writer, key + '.' + name, value, nested, depth + 1);
+                    } else if (!isFixed(key, name)) {
+                        writer.writeByte((byte) ',');
+                        writeKey(writer, key, name);
+                        writeValue(writer, value);
+                    }
+                } else if (!isFixed(key, name)) {
+                    writer.writeByte((byte) ',');
+                    writeKey(writer, key, name);
+                    writePrimitive(writer, properties, i, object);
+                }
+            } catch (Throwable e) {
+                // A getter failed: leave the property out.
+                writer.endValue();
+                writer.truncate(start);
+            }
+        }
+    }
+
+    /**
+     * Writes the value of a primitive property as a JSON string, without boxing it.
+     */
+    private static void writePrimitive(JsonWriter writer, ObjectFields properties, int index, Object object)
+            throws Throwable {
+        switch (properties.kind(index)) {
+            case ObjectFields.LONG:
+                long number = properties.getLong(index, object);
+                writer.writeByte((byte) '"');
+                writer.writeLong(number);
+                writer.writeByte((byte) '"');
+                break;
+            case ObjectFields.BOOLEAN:
+                writer.writeBytes(properties.getBoolean(index, object) ? TRUE_VALUE : FALSE_VALUE);
+                break;
+            case ObjectFields.DOUBLE:
+                writer.writeString(Double.toString(properties.getDouble(index, object)));
+                break;
+            case ObjectFields.FLOAT:
+                writer.writeString(Float.toString(properties.getFloat(index, object)));
+                break;
+            default:
+                writer.writeString(String.valueOf(properties.getChar(index, object)));
+                break;
+        }
+    }
+
+    /**
+     * Writes the value of an additional field, cut to the maximum length. Character sequences, such as a
+     * <code>StringBuilder</code>, are read only up to that length, without being copied into a string first.
+     */
+    private void writeValue(JsonWriter writer, Object value) {
+        if (value != null) {
+            writer.writeString(value instanceof CharSequence ? (CharSequence) value : value.toString(),
+                    maxFieldLength);
+        } else {
+            writer.writeBytes(NULL_VALUE);
+        }
+    }
+
+    /**
+     * Gets the encoded prefix, recompiling it if the hostname has been resolved since it was compiled.
+     */
+    private Prefix prefix() {
+        Prefix current = prefix;
+        String hostname = Hostname.get();
+        if (current.hostname != hostname) {
+            current = compilePrefix(hostname);
+            prefix = current;
+        }
+        return current;
+    }
+
+    private Prefix compilePrefix(String hostname) {
+        JsonWriter writer = new JsonWriter(INITIAL_CAPACITY);
+        writer.writeBytes(bytes("{\"version\":1,\"host\":"));
+        writer.writeString(hostname);
+        writer.writeBytes(bytes(",\"service\":"));
+        writer.writeString(serviceName);
+        writer.writeByte((byte) ',');
+
+        for (int i = 0; i < fixedKeys.length; i++) {
+            writeKey(writer, fixedKeys[i]);
+            writer.writeString(fixedValues[i]);
+            writer.writeByte((byte) ',');
+        }
+
+        return new Prefix(hostname, writer.toByteArray());
+    }
+
+    private boolean isFixed(String key) {
+        for (String fixedKey : fixedKeys) {
+            if (fixedKey.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a fixed field is named <code>key.name</code>, without concatenating them.
+     */
+    private boolean isFixed(String key, String name) {
+        for (String fixedKey : fixedKeys) {
+            if (fixedKey.length() == key.length() + 1 + name.length() && fixedKey.startsWith(key)
+                    && fixedKey.charAt(key.length()) == '.' && fixedKey.endsWith(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the name of an additional field, i.e. the key prefixed with an underscore. The reserved field
+     * <code>_id</code> is renamed to <code>__id</code>.
+     */
+    private static void writeKey(JsonWriter writer, String key) {
+        writer.writeByte((byte) '"');
+        writer.writeByte((byte) '_');
+        if ("id".equals(key)) {
+            writer.writeByte((byte) '_');
+        }
+        writer.writeEscaped(key);
+        writer.writeByte((byte) '"');
+        writer.writeByte((byte) ':');
+    }
+
+    /**
+     * Writes the name of a property field, i.e. <code>_key.name</code>.
+     */
+    private static void writeKey(JsonWriter writer, String key, String name) {
+        writer.writeByte((byte) '"');
+        writer.writeByte((byte) '_');
+        writer.writeEscaped(key);
+        writer.writeByte((byte) '.');
+        writer.writeEscaped(name);
+        writer.writeByte((byte) '"');
+        writer.writeByte((byte) ':');
+    }
+
+    private static byte[] bytes(String ascii) {
+        return ascii.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * The encoded fixed part of a record, and the hostname it was encoded with.
+     */
+    private static final class Prefix {
+        final String hostname;
+        final byte[] bytes;
+
+        /**
+         * The same bytes in a read-only direct buffer, for when the logger encodes into direct buffers. They can be
+         * enabled by a configuration at any time, so it is always there.
+         */
+        final ByteBuffer header;
+
+        Prefix(String hostname, byte[] bytes) {
+            this.hostname = hostname;
+            this.bytes = bytes;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes).flip();
+            this.header = buffer.asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * The settings that a {@link ChillogConfig} can change, resolved against those of the builder.
+     */
+    private static final class Settings {
+        final ChillogConfig config;
+
+        /**
+         * The threshold of the logger these settings are for.
+         */
+        final Chillog.Level threshold;
+
+        /**
+         * Thresholds of named loggers, by name prefix.
+         */
+        final Map<String, Chillog.Level> levels;
+
+        final ChillogSink sink;
+
+        /**
+         * Closes the sink once it is replaced and done with, if it was opened for the configuration. Null for the
+         * sink of the builder, which the logger never closes.
+         */
+        final SinkLease lease;
+
+        final int directBuffers;
+
+        /**
+         * Pool of direct buffers to encode into, or null to encode into the per-thread heap buffer.
+         */
+        final WriterPool directWriters;
+
+        /**
+         * Sampling by short message or template pattern. Empty when nothing is sampled.
+         */
+        final Map<String, Sampler> samplers;
+
+        Settings(ChillogConfig config, Chillog.Level threshold, Map<String, Chillog.Level> levels, ChillogSink sink,
+                 SinkLease lease, int directBuffers, WriterPool directWriters, Map<String, Sampler> samplers) {
+            this.config = config;
+            this.threshold = threshold;
+            this.levels = levels;
+            this.sink = sink;
+            this.lease = lease;
+            this.directBuffers = directBuffers;
+            this.directWriters = directWriters;
+            this.samplers = samplers;
+        }
+
+        /**
+         * Gets the settings of a named logger, with the threshold set for the longest prefix of its name.
+         */
+        Settings forName(String name) {
+            String prefix = name;
+            while (!levels.isEmpty()) {
+                Chillog.Level level = levels.get(prefix);
+                if (level != null) {
+                    return level == threshold ? this : new Settings(config, level, levels, sink, lease,
+                            directBuffers, directWriters, samplers);
+                }
+
+                int end = Math.max(prefix.lastIndexOf('.'), prefix.lastIndexOf('$'));
+                if (end < 0) {
+                    break;
+                }
+                prefix = prefix.substring(0, end);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Counts the holds of a sink opened for a configuration: one for the settings it belongs to, and one per write in
+     * flight. The sink is flushed and closed when the last hold is released, i.e. once it has been replaced and the
+     * writes that loaded it before are done. A write that finds it closed loads the settings again.
+     */
+    static final class SinkLease {
+        final ChillogSink sink;
+        final AtomicInteger holds = new AtomicInteger(1);
+
+        SinkLease(ChillogSink sink) {
+            this.sink = sink;
+        }
+
+        /**
+         * Adds a hold, unless the sink is already closed.
+         *
+         * @return Whether the sink can be written to until {@link #release()}.
+         */
+        boolean acquire() {
+            int count;
+            do {
+                count = holds.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!holds.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        void release() {
+            if (holds.decrementAndGet() == 0) {
+                sink.flush();
+                if (sink instanceof Closeable) {
+                    try {
+                        ((Closeable) sink).close();
+                    } catch (IOException ignored) {
+                        // Nothing more can be written to it anyway.
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks one in every N records of a key.
+     */
+    private static final class Sampler {
+        final int rate;
+        final AtomicLong counter = new AtomicLong();
+
+        Sampler(int rate) {
+            this.rate = rate;
+        }
+
+        boolean sample() {
+            return rate == 1 || counter.getAndIncrement() % rate == 0;
+        }
+    }
+
+    /**
+     * Builder of {@link ChillogLogger}.
+     */
+    public static final class Builder {
+        private String serviceName = System.getenv("SERVICE_NAME");
+        private ChillogSink sink = new ConsoleSink();
+        private Chillog.Level threshold = Chillog.Level.DEBUG;
+        private final Map<String, Chillog.Level> levels = new HashMap<>();
+        private final Map<String, String> fields = new LinkedHashMap<>();
+        private int directBuffers;
+        private ChillogMetrics metrics;
+        private ChillogLanes lanes;
+        private int maxShortMessageLength = 8 * 1024;
+        private int maxFullMessageLength = 64 * 1024;
+        private int maxFieldLength = 16 * 1024;
+        private int maxRecordSize = 256 * 1024;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the service name. Defaults to the value of environment variable called SERVICE_NAME.
+         *
+         * @param serviceName The service name identifier of the application.
+         * @return This builder.
+         */
+        public Builder service(String serviceName) {
+            this.serviceName = serviceName;
+            return this;
+        }
+
+        /**
+         * Sets where the records go. Defaults to {@link ConsoleSink}.
+         *
+         * @param sink The {@link ChillogSink} to write records to.
+         * @return This builder.
+         */
+        public Builder sink(ChillogSink sink) {
+            if (sink == null) {
+                throw new IllegalArgumentException("sink must not be null");
+            }
+            this.sink = sink;
+            return this;
+        }
+
+        /**
+         * Sets the least severe level that is written. Defaults to {@link Chillog.Level#DEBUG}, i.e. everything.
+         *
+         * @param threshold The least severe {@link Chillog.Level} to write.
+         * @return This builder.
+         */
+        public Builder level(Chillog.Level threshold) {
+            if (threshold == null) {
+                throw new IllegalArgumentException("level must not be null");
+            }
+            this.threshold = threshold;
+            return this;
+        }
+
+        /**
+         * Sets the least severe level that is written by the named loggers of a package or a class, and of those
+         * below it, see {@link ChillogLogger#getLogger(String)}.
+         *
+         * @param prefix    The name, or name prefix, of the loggers, e.g. <code>com.example.payments</code>.
+         * @param threshold The least severe {@link Chillog.Level} they write.
+         * @return This builder.
+         */
+        public Builder level(String prefix, Chillog.Level threshold) {
+            if (prefix == null || threshold == null) {
+                throw new IllegalArgumentException("prefix and level must not be null");
+            }
+            levels.put(prefix, threshold);
+            return this;
+        }
+
+        /**
+         * Adds a field that is printed with every record, e.g. a component name. The value is converted with
+         * <code>toString()</code> once, when the logger is built.
+         * <p>
+         * When a log call passes an additional field with the same key, the fixed field takes precedence.
+         *
+         * @param key   Name of the field, without the leading underscore.
+         * @param value Value of the field.
+         * @return This builder.
+         */
+        public Builder field(String key, Object value) {
+            if (key == null) {
+                throw new IllegalArgumentException("key must not be null");
+            }
+            fields.put(key, value != null ? value.toString() : "NULL");
+            return this;
+        }
+
+        /**
+         * Encodes records into pooled direct buffers instead of a per-thread heap buffer. The constant prefix and the
+         * event bytes are handed to the sink as separate buffers, which {@link ChannelSink} writes with a single
+         * gathering write and without copying them.
+         *
+         * @param poolSize The maximum number of idle direct buffers kept for reuse, e.g. the number of threads that
+         *                 log concurrently.
+         * @return This builder.
+         */
+        public Builder directBuffers(int poolSize) {
+            if (poolSize <= 0) {
+                throw new IllegalArgumentException("poolSize must be positive");
+            }
+            this.directBuffers = poolSize;
+            return this;
+        }
+
+        /**
+         * Aggregates matched records into periodic summary records, printed by this logger.
+         *
+         * @param metrics The {@link ChillogMetrics}. It can be used by one logger only.
+         * @return This builder.
+         */
+        public Builder metrics(ChillogMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Queues records per severity class, and writes them on a background thread, most severe first.
+         *
+         * @param lanes The {@link ChillogLanes}. They can be shared by loggers.
+         * @return This builder.
+         */
+        public Builder lanes(ChillogLanes lanes) {
+            this.lanes = lanes;
+            return this;
+        }
+
+        /**
+         * Sets the maximum lengths of the values of a record, in characters. Longer values are cut while they are
+         * encoded, and the record gets a <code>_truncated</code> field. Default to 8192 characters for the short
+         * message, 65536 for the full message, and 16384 for each additional field.
+         *
+         * @param shortMessage The maximum length of the short message.
+         * @param fullMessage  The maximum length of the full message.
+         * @param field        The maximum length of the value of each additional field.
+         * @return This builder.
+         */
+        public Builder maxLengths(int shortMessage, int fullMessage, int field) {
+            if (shortMessage <= 0 || fullMessage <= 0 || field <= 0) {
+                throw new IllegalArgumentException("maximum lengths must be positive");
+            }
+            this.maxShortMessageLength = shortMessage;
+            this.maxFullMessageLength = fullMessage;
+            this.maxFieldLength = field;
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of an encoded record. The short and full messages are cut where they would take a
+         * record past it, additional fields that would are left out, and the record gets a <code>_truncated</code>
+         * field. Defaults to 256 KiB.
+         * <p>
+         * The fixed fields, the level and the timestamp are always written, so a record only exceeds this size if
+         * they alone do.
+         *
+         * @param bytes The maximum size of a record, in bytes.
+         * @return This builder.
+         */
+        public Builder maxRecordSize(int bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("bytes must be positive");
+            }
+            this.maxRecordSize = bytes;
+            return this;
+        }
+
+        /**
+         * Creates the logger.
+         *
+         * @return A new {@link ChillogLogger}.
+         */
+        public ChillogLogger build() {
+            if (serviceName == null) {
+                throw new IllegalStateException("SERVICE_NAME is not set. Please set it in your environment variable.");
+            }
+            ChillogLogger logger = new ChillogLogger(this);
+            if (metrics != null) {
+                metrics.attach(logger);
+            }
+            return logger;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package id.skyfish.chillog;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Routes {@link System.Logger}, i.e. the logging of the JDK itself and of libraries that use
+ * {@link System#getLogger(String)}, to the default Chillog logger.
+ * <p>
+ * The finder is registered as a service, so it is picked up by the JVM when Chillog is on the class path. Records
+ * are printed through the named logger of the same name, see {@link ChillogLogger#getLogger(String)}, so with the
+ * name as the <code>_logger</code> field and with its threshold. The levels map as follows: ERROR to ERROR, WARNING
+ * to WARNING, INFO to INFORMATIONAL, and DEBUG and TRACE to DEBUG. Messages are only formatted when their level
+ * passes that threshold.
+ * <p>
+ * While the default logger cannot be created, e.g. because SERVICE_NAME is not set, records of INFO and above are
+ * printed as plain text to the standard error stream instead, after one line that reports why.
+ */
+public final class ChillogLoggerFinder extends System.LoggerFinder {
+
+    private final ConcurrentMap<String, System.Logger> loggers = new ConcurrentHashMap<>();
+
+    private final ChillogSystemLogger.Fallback fallback = new ChillogSystemLogger.Fallback(() -> System.err);
+
+    @Override
+    public System.Logger getLogger(String name, Module module) {
+        return loggers.computeIfAbsent(name, key -> new ChillogSystemLogger(key, Chillog::getDefaultLogger, fallback));
+    }
+}
@@ -0,0 +1,375 @@
+package id.skyfish.chillog;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates numbers from log records in process, and prints them periodically as summary records.
+ * <p>
+ * Each {@link Rule} matches records by short message and severity. A matched record is counted, the numeric
+ * additional fields named by the rule are added to sums or recorded in histograms, and the record itself is printed
+ * only if it is picked by the sampling rate of the rule. A record matched by several rules, e.g. one that counts and
+ * one that keeps a histogram, is aggregated by each of them, and printed if any of them picks it. Every interval, a
+ * summary record with short message <code>"metrics summary"</code> is printed per rule that matched anything. For
+ * example:
+ * <pre>
+ * ChillogMetrics metrics = ChillogMetrics.builder()
+ *         .rule(ChillogMetrics.rule("payment processed", Chillog.Level.INFORMATIONAL)
+ *                 .sum("amount")
+ *                 .histogram("latency_ms")
+ *                 .sampleOneIn(100))
+ *         .interval(1, TimeUnit.MINUTES)
+ *         .build();
+ * ChillogLogger logger = ChillogLogger.builder().metrics(metrics).build();
+ * </pre>
+ * All accumulators are lock-free. Records are matched whether or not their severity passes the threshold of the
+ * logger.
+ */
+public final class ChillogMetrics implements Closeable {
+
+    static final String SUMMARY_MESSAGE = "metrics summary";
+
+    private final Map<String, Metric[]> metricsByMessage;
+    private final long intervalMillis;
+
+    private volatile ChillogLogger logger;
+    private ScheduledExecutorService scheduler;
+    private long windowStart;
+
+    private ChillogMetrics(Builder builder) {
+        Map<String, List<Metric>> grouped = new HashMap<>();
+        for (Rule rule : builder.rules) {
+            grouped.computeIfAbsent(rule.shortMessage, key -> new ArrayList<>()).add(new Metric(rule));
+        }
+
+        this.metricsByMessage = new HashMap<>();
+        for (Map.Entry<String, List<Metric>> entry : grouped.entrySet()) {
+            metricsByMessage.put(entry.getKey(), entry.getValue().toArray(new Metric[0]));
+        }
+        this.intervalMillis = builder.intervalMillis;
+    }
+
+    /**
+     * Creates a builder for a new aggregation.
+     *
+     * @return A new {@link Builder}.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a rule that matches records with the given short message and severity.
+     *
+     * @param shortMessage The short message to match, exactly.
+     * @param level        The severity {@link Chillog.Level} to match.
+     * @return A new {@link Rule}.
+     */
+    public static Rule rule(String shortMessage, Chillog.Level level) {
+        return new Rule(shortMessage, level);
+    }
+
+    /**
+     * Starts printing summaries through the given logger. Called when the logger is built.
+     */
+    synchronized void attach(ChillogLogger logger) {
+        if (this.logger != null) {
+            throw new IllegalStateException("ChillogMetrics is already attached to a logger");
+        }
+
+        this.logger = logger;
+        this.windowStart = System.currentTimeMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chillog-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Accumulates a record into every rule that matches it.
+     *
+     * @return <code>false</code> if the record matched rules and none of them sampled it, i.e. should not be printed.
+     */
+    boolean observe(Chillog.Level level, String shortMessage, String[] keyValuePairs,
+                    Map<String, Object> additionalFields) {
+        if (shortMessage == null) {
+            return true;
+        }
+
+        Metric[] metrics = metricsByMessage.get(shortMessage);
+        if (metrics == null) {
+            return true;
+        }
+
+        boolean matched = false;
+        boolean sampled = false;
+        for (Metric metric : metrics) {
+            if (metric.level == level) {
+                matched = true;
+                sampled |= metric.observe(keyValuePairs, additionalFields);
+            }
+        }
+        return !matched || sampled;
+    }
+
+    /**
+     * Prints the summaries accumulated since the last interval, and starts a new one.
+     */
+    public synchronized void flush() {
+        ChillogLogger target = logger;
+        if (target == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long window = now - windowStart;
+        windowStart = now;
+
+        for (Metric[] metrics : metricsByMessage.values()) {
+            for (Metric metric : metrics) {
+                Map<String, Object> summary = metric.summarizeAndReset(window);
+                if (summary != null) {
+                    target.log(SUMMARY_MESSAGE, null, now, Chillog.Level.NOTICE, summary);
+                }
+            }
+        }
+    }
+
+    /**
+     * Prints the last summaries and stops the periodic printing.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            flush();
+        }
+    }
+
+    /**
+     * Reads a numeric additional field without converting the other fields.
+     *
+     * @return The value, or {@link Double#NaN} if the field is absent or not a number.
+     */
+    static double numericField(String key, String[] keyValuePairs, Map<String, Object> additionalFields) {
+        Object value = null;
+        if (keyValuePairs != null) {
+            for (int i = 0; i + 1 < keyValuePairs.length; i += 2) {
+                if (key.equals(keyValuePairs[i])) {
+                    value = keyValuePairs[i + 1];
+                }
+            }
+        } else if (additionalFields != null) {
+            value = additionalFields.get(key);
+        }
+
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Rule that selects records, and the fields to aggregate from them.
+     */
+    public static final class Rule {
+        private final String shortMessage;
+        private final Chillog.Level level;
+        private final List<String> sums = new ArrayList<>();
+        private final List<String> histograms = new ArrayList<>();
+        private int sampleRate = 1;
+
+        private Rule(String shortMessage, Chillog.Level level) {
+            if (shortMessage == null || level == null) {
+                throw new IllegalArgumentException("shortMessage and level must not be null");
+            }
+            this.shortMessage = shortMessage;
+            this.level = level;
+        }
+
+        /**
+         * Adds up a numeric additional field.
+         *
+         * @param key Name of the field, with or without the leading underscore.
+         * @return This rule.
+         */
+        public Rule sum(String key) {
+            sums.add(stripUnderscore(key));
+            return this;
+        }
+
+        /**
+         * Records a numeric additional field, e.g. a latency in milliseconds, in a histogram. The summary reports its
+         * 50th, 90th and 99th percentiles, and its maximum.
+         *
+         * @param key Name of the field, with or without the leading underscore.
+         * @return This rule.
+         */
+        public Rule histogram(String key) {
+            histograms.add(stripUnderscore(key));
+            return this;
+        }
+
+        /**
+         * Prints only one in every <code>rate</code> matched records. Defaults to 1, i.e. every record.
+         *
+         * @param rate The sampling rate.
+         * @return This rule.
+         */
+        public Rule sampleOneIn(int rate) {
+            if (rate <= 0) {
+                throw new IllegalArgumentException("rate must be positive");
+            }
+            this.sampleRate = rate;
+            return this;
+        }
+
+        private static String stripUnderscore(String key) {
+            return key.startsWith("_") ? key.substring(1) : key;
+        }
+    }
+
+    /**
+     * Builder of {@link ChillogMetrics}.
+     */
+    public static final class Builder {
+        private final List<Rule> rules = new ArrayList<>();
+        private long intervalMillis = TimeUnit.MINUTES.toMillis(1);
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a rule.
+         *
+         * @param rule The {@link Rule}.
+         * @return This builder.
+         */
+        public Builder rule(Rule rule) {
+            rules.add(rule);
+            return this;
+        }
+
+        /**
+         * Sets how often summaries are printed. Defaults to one minute.
+         *
+         * @param interval The interval.
+         * @param unit     The unit of the interval argument.
+         * @return This builder.
+         */
+        public Builder interval(long interval, TimeUnit unit) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("interval must be positive");
+            }
+            this.intervalMillis = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * Creates the aggregation. It starts when it is passed to a {@link ChillogLogger.Builder}.
+         *
+         * @return A new {@link ChillogMetrics}.
+         */
+        public ChillogMetrics build() {
+            return new ChillogMetrics(this);
+        }
+    }
+
+    /**
+     * Accumulators of one rule.
+     */
+    private static final class Metric {
+        final String shortMessage;
+        final Chillog.Level level;
+        final int sampleRate;
+        final String[] sumKeys;
+        final DoubleAdder[] sums;
+        final String[] histogramKeys;
+        final Histogram[] histograms;
+        final LongAdder count = new LongAdder();
+        final AtomicLong sampleCounter = new AtomicLong();
+
+        Metric(Rule rule) {
+            this.shortMessage = rule.shortMessage;
+            this.level = rule.level;
+            this.sampleRate = rule.sampleRate;
+            this.sumKeys = rule.sums.toArray(new String[0]);
+            this.sums = new DoubleAdder[sumKeys.length];
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] = new DoubleAdder();
+            }
+            this.histogramKeys = rule.histograms.toArray(new String[0]);
+            this.histograms = new Histogram[histogramKeys.length];
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new Histogram();
+            }
+        }
+
+        boolean observe(String[] keyValuePairs, Map<String, Object> additionalFields) {
+            count.increment();
+
+            for (int i = 0; i < sumKeys.length; i++) {
+                double value = numericField(sumKeys[i], keyValuePairs, additionalFields);
+                if (!Double.isNaN(value)) {
+                    sums[i].add(value);
+                }
+            }
+
+            for (int i = 0; i < histogramKeys.length; i++) {
+                double value = numericField(histogramKeys[i], keyValuePairs, additionalFields);
+                if (!Double.isNaN(value)) {
+                    histograms[i].record(Math.round(value));
+                }
+            }
+
+            return sampleRate == 1 || sampleCounter.getAndIncrement() % sampleRate == 0;
+        }
+
+        Map<String, Object> summarizeAndReset(long windowMillis) {
+            long matched = count.sumThenReset();
+            if (matched == 0) {
+                return null;
+            }
+
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("metric", shortMessage);
+            summary.put("metric_level", level.getValue());
+            summary.put("window_ms", windowMillis);
+            summary.put("count", matched);
+
+            for (int i = 0; i < sumKeys.length; i++) {
+                summary.put(sumKeys[i] + "_sum", sums[i].sumThenReset());
+            }
+
+            for (int i = 0; i < histogramKeys.length; i++) {
+                Histogram.Snapshot snapshot = histograms[i].snapshotAndReset();
+                if (snapshot.count() > 0) {
+                    summary.put(histogramKeys[i] + "_p50", snapshot.percentile(50));
+                    summary.put(histogramKeys[i] + "_p90", snapshot.percentile(90));
+                    summary.put(histogramKeys[i] + "_p99", snapshot.percentile(99));
+                    summary.put(histogramKeys[i] + "_max", snapshot.max);
+                }
+            }
+
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package id.skyfish.chillog;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tail-based buffering of low-severity records, e.g. for the duration of a request.
+ * <p>
+ * While a scope is open on a thread, INFORMATIONAL and DEBUG records logged on that thread are not printed. They are
+ * kept, unencoded, in a ring buffer that holds the most recent ones. When a record of ERROR or above severity is
+ * logged in the scope, the buffered records are encoded and printed before it. When the scope is closed, records that
+ * are still buffered are discarded without ever being encoded.
+ * <p>
+ * Buffered records are printed even if their severity is below the threshold of their logger, so the threshold can
+ * stay high in production without losing the trail that led to an error. Usage:
+ * <pre>
+ * try (ChillogScope scope = ChillogScope.open()) {
+ *     handle(request);
+ * }
+ * </pre>
+ * A scope belongs to the thread that opened it. Opening a scope while one is already open on the thread joins the
+ * outer one; the buffer is discarded when the outermost scope is closed.
+ */
+public final class ChillogScope implements AutoCloseable {
+
+    /**
+     * Number of records kept by {@link #open()}.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * Number of scopes open across all threads, so that threads without a scope can skip the thread-local lookup.
+     */
+    private static final AtomicInteger openScopes = new AtomicInteger();
+
+    private static final ThreadLocal<ChillogScope> scopes = new ThreadLocal<>();
+
+    private LogEvent[] ring;
+    private int head;
+    private int size;
+    private int depth;
+
+    /**
+     * Whether the buffered records are being printed. Records logged meanwhile, e.g. from a <code>toString()</code>
+     * method, bypass the scope.
+     */
+    private boolean flushing;
+
+    private ChillogScope(int capacity) {
+        allocate(capacity);
+    }
+
+    /**
+     * Opens a scope on the current thread that keeps up to {@link #DEFAULT_CAPACITY} records.
+     *
+     * @return The scope, to be closed when the unit of work ends.
+     */
+    public static ChillogScope open() {
+        return open(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Opens a scope on the current thread.
+     *
+     * @param capacity The maximum number of records kept. When the buffer is full, the oldest record is dropped.
+     * @return The scope, to be closed when the unit of work ends.
+     */
+    public static ChillogScope open(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        ChillogScope scope = scopes.get();
+        if (scope == null) {
+            scope = new ChillogScope(capacity);
+            scopes.set(scope);
+        }
+
+        if (scope.depth++ == 0) {
+            if (scope.ring.length != capacity) {
+                scope.allocate(capacity);
+            }
+            openScopes.incrementAndGet();
+        }
+
+        return scope;
+    }
+
+    /**
+     * Closes the scope. If this is the outermost scope on the thread, the buffered records are discarded.
+     */
+    @Override
+    public void close() {
+        if (depth == 0 || scopes.get() != this) {
+            return;
+        }
+
+        if (--depth == 0) {
+            discard();
+            openScopes.decrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the scope open on the current thread.
+     *
+     * @return The open scope, or null.
+     */
+    static ChillogScope current() {
+        if (openScopes.get() == 0) {
+            return null;
+        }
+
+        ChillogScope scope = scopes.get();
+        return scope != null && scope.depth > 0 && !scope.flushing ? scope : null;
+    }
+
+    /**
+     * Checks whether records of this severity are buffered rather than printed.
+     */
+    static boolean buffers(Chillog.Level level) {
+        return level.getValue() >= Chillog.Level.INFORMATIONAL.getValue();
+    }
+
+    /**
+     * Checks whether records of this severity print the buffered records.
+     */
+    static boolean triggers(Chillog.Level level) {
+        return level.getValue() <= Chillog.Level.ERROR.getValue();
+    }
+
+    /**
+     * Keeps a record in the buffer, overwriting the oldest one if the buffer is full.
+     */
+    void capture(ChillogLogger logger, Chillog.Level level, long timestamp, String shortMessage,
+                 ChillogTemplate template, Object[] arguments, String fullMessage,
+                 String[] keyValuePairs, Map<String, Object> additionalFields) {
+        int index = (head + size) % ring.length;
+        if (size == ring.length) {
+            head = (head + 1) % ring.length;
+        } else {
+            size++;
+        }
+
+        ring[index].set(logger, level, timestamp, shortMessage, template, arguments, fullMessage,
+                keyValuePairs, additionalFields);
+    }
+
+    /**
+     * Prints the buffered records, oldest first, and empties the buffer.
+     */
+    void flush() {
+        flushing = true;
+        try {
+            for (int i = 0; i < size; i++) {
+                LogEvent event = ring[(head + i) % ring.length];
+                event.logger.write(event);
+            }
+        } finally {
+            flushing = false;
+            discard();
+        }
+    }
+
+    private void discard() {
+        for (int i = 0; i < size; i++) {
+            ring[(head + i) % ring.length].clear();
+        }
+        head = 0;
+        size = 0;
+    }
+
+    private void allocate(int capacity) {
+        ring = new LogEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new LogEvent();
+        }
+        head = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,44 @@
+package id.skyfish.chillog;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Destination of encoded Chillog records.
+ * <p>
+ * Implementations must be thread-safe, and must not throw: a failure to log should never fail the caller.
+ */
+public interface ChillogSink {
+
+    /**
+     * Writes one encoded record.
+     *
+     * @param level  The severity {@link Chillog.Level} of the record, e.g. to pick an output stream.
+     * @param record The UTF-8 bytes of the record, including the trailing line feed. The buffer is only valid for the
+     *               duration of the call; implementations that keep it must copy it.
+     */
+    void write(Chillog.Level level, ByteBuffer record);
+
+    /**
+     * Writes one encoded record that comes in two parts: the constant header shared by the records of a logger, and
+     * the bytes of this event. Used by loggers that encode into direct buffers.
+     * <p>
+     * The header buffer is shared by every sink of the logger, and read by them concurrently: implementations must
+     * not change its position or limit, but read it through a view, e.g. {@link ByteBuffer#duplicate()}. The default
+     * implementation copies both parts into one buffer; sinks that can write them without copying, such as
+     * {@link ChannelSink}, override it.
+     *
+     * @param level  The severity {@link Chillog.Level} of the record.
+     * @param header The constant leading bytes of the record.
+     * @param body   The remaining bytes of the record, including the trailing line feed.
+     */
+    default void write(Chillog.Level level, ByteBuffer header, ByteBuffer body) {
+        ByteBuffer record = ByteBuffer.allocate(header.remaining() + body.remaining());
+        record.put(header.duplicate()).put(body).flip();
+        write(level, record);
+    }
+
+    /**
+     * Flushes records written so far to the underlying output.
+     */
+    void flush();
+}
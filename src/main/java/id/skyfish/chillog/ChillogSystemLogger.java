@@ -0,0 +1,156 @@
+package id.skyfish.chillog;
+
+import java.io.PrintStream;
+import java.util.ResourceBundle;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * {@link System.Logger} that prints through the named logger of the same name of the default Chillog logger, see
+ * {@link ChillogLoggerFinder}.
+ */
+final class ChillogSystemLogger implements System.Logger {
+
+    private final String name;
+    private final Supplier<ChillogLogger> root;
+    private final Fallback fallback;
+
+    /**
+     * @param root     Gets the logger whose named logger prints the records. It throws if the logger cannot be
+     *                 created.
+     * @param fallback Prints the records while it cannot.
+     */
+    ChillogSystemLogger(String name, Supplier<ChillogLogger> root, Fallback fallback) {
+        this.name = name;
+        this.root = root;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean isLoggable(Level level) {
+        Chillog.Level chillogLevel = toChillog(level);
+        if (chillogLevel == null) {
+            return false;
+        }
+
+        ChillogLogger logger = logger();
+        return logger != null ? logger.isEnabled(chillogLevel) : Fallback.isLoggable(level);
+    }
+
+    @Override
+    public void log(Level level, ResourceBundle bundle, String message, Throwable thrown) {
+        Chillog.Level chillogLevel = toChillog(level);
+        if (chillogLevel == null) {
+            return;
+        }
+
+        ChillogLogger logger = logger();
+        if (logger == null) {
+            if (Fallback.isLoggable(level)) {
+                fallback.print(level, name, ForeignMessages.format(bundle, message, null), thrown);
+            }
+        } else if (logger.isEnabled(chillogLevel)) {
+            logger.log(chillogLevel, ForeignMessages.format(bundle, message, null), ForeignMessages.stackTrace(thrown),
+                    null);
+        }
+    }
+
+    @Override
+    public void log(Level level, ResourceBundle bundle, String format, Object... parameters) {
+        Chillog.Level chillogLevel = toChillog(level);
+        if (chillogLevel == null) {
+            return;
+        }
+
+        ChillogLogger logger = logger();
+        if (logger == null) {
+            if (Fallback.isLoggable(level)) {
+                fallback.print(level, name, ForeignMessages.format(bundle, format, parameters), null);
+            }
+        } else if (logger.isEnabled(chillogLevel)) {
+            logger.log(chillogLevel, ForeignMessages.format(bundle, format, parameters), null, null);
+        }
+    }
+
+    /**
+     * Gets the named logger of the default logger, which can be replaced at any time.
+     *
+     * @return The logger, or null if it cannot be created, e.g. because SERVICE_NAME is not set. Failing to log must
+     * not fail the JDK code that logs.
+     */
+    private ChillogLogger logger() {
+        try {
+            return root.get().getLogger(name);
+        } catch (RuntimeException e) {
+            fallback.report(e);
+            return null;
+        }
+    }
+
+    /**
+     * Maps a {@link System.Logger.Level} to a Chillog level.
+     *
+     * @return The level, or null for {@link Level#OFF}.
+     */
+    static Chillog.Level toChillog(Level level) {
+        switch (level) {
+            case ERROR:
+                return Chillog.Level.ERROR;
+            case WARNING:
+                return Chillog.Level.WARNING;
+            case INFO:
+                return Chillog.Level.INFORMATIONAL;
+            case OFF:
+                return null;
+            default:
+                return Chillog.Level.DEBUG;
+        }
+    }
+
+    /**
+     * Prints records to a stream, as plain text, while the default logger cannot be created, so that the diagnostics
+     * of the JDK are not lost. Like the default logging of the JDK, it prints INFO and above.
+     */
+    static final class Fallback {
+
+        private final Supplier<PrintStream> stream;
+        private final AtomicBoolean reported = new AtomicBoolean();
+
+        /**
+         * @param stream Gets the stream to print to, on every record, so that a replaced standard error stream is
+         *               used.
+         */
+        Fallback(Supplier<PrintStream> stream) {
+            this.stream = stream;
+        }
+
+        static boolean isLoggable(Level level) {
+            return level.getSeverity() >= Level.INFO.getSeverity();
+        }
+
+        /**
+         * Reports why the default logger cannot be created, the first time only.
+         */
+        void report(RuntimeException e) {
+            if (reported.compareAndSet(false, true)) {
+                stream.get().println("chillog: cannot create the default logger, printing platform logging here: "
+                        + e.getMessage());
+            }
+        }
+
+        void print(Level level, String name, String message, Throwable thrown) {
+            PrintStream out = stream.get();
+            synchronized (out) {
+                out.println(level.getName() + " " + name + ": " + message);
+                if (thrown != null) {
+                    thrown.printStackTrace(out);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package id.skyfish.chillog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Short message with <code>{}</code> placeholders, parsed once and reused.
+ * <p>
+ * The literal segments between the placeholders are escaped and encoded to UTF-8 when the template is parsed. When a
+ * record is printed, the encoder interleaves these segments with the escaped arguments directly in the output, so
+ * neither <code>String.format</code> nor an intermediate short message string is needed, and nothing is formatted at
+ * all for records that are not printed. For example:
+ * <pre>
+ * private static final ChillogTemplate PAID = Chillog.template("user {} paid {}");
+ * ...
+ * Chillog.info(PAID, userId, amount);
+ * </pre>
+ * Arguments are converted with <code>toString()</code>. Missing arguments leave their placeholder as it is, and extra
+ * arguments are ignored. Templates are immutable and thread-safe.
+ */
+public final class ChillogTemplate {
+
+    private static final String PLACEHOLDER = "{}";
+
+    /**
+     * Upper bound on the number of cached templates, in case templates are built from variable data.
+     */
+    private static final int MAX_CACHED = 4096;
+
+    private static final ConcurrentMap<String, ChillogTemplate> cache = new ConcurrentHashMap<>();
+
+    private final String pattern;
+
+    /**
+     * Literal text around the placeholders; there is one more segment than there are placeholders.
+     */
+    private final String[] segments;
+
+    /**
+     * The segments, escaped and encoded.
+     */
+    private final byte[][] encodedSegments;
+
+    private ChillogTemplate(String pattern) {
+        this.pattern = pattern;
+
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int placeholder;
+        while ((placeholder = pattern.indexOf(PLACEHOLDER, start)) >= 0) {
+            parts.add(pattern.substring(start, placeholder));
+            start = placeholder + PLACEHOLDER.length();
+        }
+        parts.add(pattern.substring(start));
+
+        this.segments = parts.toArray(new String[0]);
+        this.encodedSegments = new byte[segments.length][];
+        for (int i = 0; i < segments.length; i++) {
+            JsonWriter writer = new JsonWriter(segments[i].length() + 16);
+            writer.writeEscaped(segments[i]);
+            encodedSegments[i] = writer.toByteArray();
+        }
+    }
+
+    /**
+     * Gets the template for the given pattern, parsing it if it is not cached yet.
+     *
+     * @param pattern Short message with <code>{}</code> placeholders.
+     * @return The template.
+     */
+    public static ChillogTemplate of(String pattern) {
+        if (pattern == null) {
+            throw new IllegalArgumentException("pattern must not be null");
+        }
+
+        ChillogTemplate template = cache.get(pattern);
+        if (template == null) {
+            template = new ChillogTemplate(pattern);
+            if (cache.size() < MAX_CACHED) {
+                ChillogTemplate cached = cache.putIfAbsent(pattern, template);
+                if (cached != null) {
+                    template = cached;
+                }
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Gets the pattern this template was parsed from.
+     *
+     * @return The pattern.
+     */
+    public String pattern() {
+        return pattern;
+    }
+
+    /**
+     * Gets the number of placeholders.
+     *
+     * @return The number of arguments the template takes.
+     */
+    public int placeholderCount() {
+        return segments.length - 1;
+    }
+
+    /**
+     * Formats the template with the given arguments.
+     *
+     * @param arguments Values for the placeholders.
+     * @return The formatted message.
+     */
+    public String format(Object... arguments) {
+        StringBuilder builder = new StringBuilder(pattern.length() + 16 * placeholderCount());
+        builder.append(segments[0]);
+        for (int i = 1; i < segments.length; i++) {
+            int argument = i - 1;
+            if (arguments != null && argument < arguments.length) {
+                builder.append(arguments[argument]);
+            } else {
+                builder.append(PLACEHOLDER);
+            }
+            builder.append(segments[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes the formatted template, escaped, inside a JSON string.
+     */
+    void writeTo(JsonWriter writer, Object[] arguments) {
+        writer.writeEscaped(encodedSegments[0], segments[0]);
+        for (int i = 1; i < encodedSegments.length; i++) {
+            int argument = i - 1;
+            if (arguments != null && argument < arguments.length) {
+                Object value = arguments[argument];
+                writer.writeEscaped(value instanceof CharSequence ? (CharSequence) value : String.valueOf(value));
+            } else {
+                writer.writeEscaped(PLACEHOLDER);
+            }
+            writer.writeEscaped(encodedSegments[i], segments[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -0,0 +1,36 @@
+package id.skyfish.chillog;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes records to STDOUT (for WARNING or below severity) or STDERR (for ERROR or above severity).
+ * <p>
+ * The streams are looked up on every write, so <code>System.setOut</code> and <code>System.setErr</code> are
+ * honoured.
+ */
+public final class ConsoleSink implements ChillogSink {
+
+    @Override
+    public void write(Chillog.Level level, ByteBuffer record) {
+        PrintStream stream = streamFor(level);
+
+        if (record.hasArray()) {
+            stream.write(record.array(), record.arrayOffset() + record.position(), record.remaining());
+        } else {
+            byte[] bytes = new byte[record.remaining()];
+            record.duplicate().get(bytes);
+            stream.write(bytes, 0, bytes.length);
+        }
+    }
+
+    @Override
+    public void flush() {
+        System.out.flush();
+        System.err.flush();
+    }
+
+    private static PrintStream streamFor(Chillog.Level level) {
+        return level.getValue() >= Chillog.Level.WARNING.getValue() ? System.out : System.err;
+    }
+}
@@ -0,0 +1,313 @@
+package id.skyfish.chillog;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Ordered, array-backed map of interleaving keys and values, e.g. the varargs of a log call.
+ * <p>
+ * The keys are converted to strings once, and the fields are copied into a single array, so later changes to the
+ * array of pairs do not show. Nothing is hashed after that, and the encoder reads the fields by index. Fields keep the
+ * order of the array. When a key appears more than once, the last value wins, in the position of the last pair.
+ * <p>
+ * The map is a {@link Map} for compatibility. Lookups scan the fields, which is fast for the handful of fields a log
+ * call has. Modifying it copies the fields into a {@link LinkedHashMap} first.
+ */
+final class FieldList extends AbstractMap<String, Object> {
+
+    /**
+     * Per-thread scratch space for finding the printed pairs while a map is created.
+     */
+    private static final ThreadLocal<Dedupe> DEDUPES = ThreadLocal.withInitial(Dedupe::new);
+
+    /**
+     * Interleaving keys and values of the printed fields, in array order, followed by unused slots.
+     */
+    private final Object[] fields;
+
+    /**
+     * Number of printed fields.
+     */
+    private final int size;
+
+    /**
+     * Copy of the fields, made when the map is modified. Null until then.
+     */
+    private Map<String, Object> copy;
+
+    /**
+     * @param skipNullKeys Whether pairs with a null key are left out, rather than kept under the key "null".
+     * @param nullAsEmpty  Whether a null value stands for an empty string, rather than for a missing value.
+     */
+    private FieldList(Object[] pairs, boolean skipNullKeys, boolean nullAsEmpty) {
+        int pairCount = pairCount(pairs);
+        Object[] copied = new Object[pairCount * 2];
+        for (int i = 0; i < pairCount; i++) {
+            Object key = pairs[i * 2];
+            Object value = value(pairs, i);
+            copied[i * 2] = key == null ? null : key.toString();
+            copied[i * 2 + 1] = value == null && nullAsEmpty ? "" : value;
+        }
+
+        Dedupe dedupe = DEDUPES.get();
+        int printed = dedupe.mark(copied, 2, pairCount, skipNullKeys);
+        if (printed < pairCount) {
+            // Moves the printed fields to the front; each is moved to an index no larger than its own.
+            for (int i = 0, field = 0; i < pairCount; i++) {
+                if (dedupe.isPrinted(i)) {
+                    copied[field * 2] = copied[i * 2];
+                    copied[field * 2 + 1] = copied[i * 2 + 1];
+                    field++;
+                }
+            }
+            Arrays.fill(copied, printed * 2, copied.length, null);
+        }
+
+        this.fields = copied;
+        this.size = printed;
+    }
+
+    /**
+     * Copies the arguments of {@link Chillog#map(Object...)}: keys are converted with <code>toString()</code>, null
+     * keys are skipped and null values are empty strings.
+     */
+    static FieldList ofObjects(Object[] pairs) {
+        return new FieldList(pairs, true, true);
+    }
+
+    /**
+     * Copies the key-value pairs of the <code>String...</code> flavour of the logging methods.
+     */
+    static FieldList ofStrings(String[] pairs) {
+        return new FieldList(pairs, false, false);
+    }
+
+    /**
+     * Checks whether this map still holds the fields it was created with, i.e. has not been modified.
+     */
+    boolean isUnmodified() {
+        return copy == null;
+    }
+
+    /**
+     * Gets the key of the field at the given index, in array order. Only valid while {@link #isUnmodified()}.
+     */
+    String key(int field) {
+        return (String) fields[field * 2];
+    }
+
+    /**
+     * Gets the value of the field at the given index, in array order. Only valid while {@link #isUnmodified()}.
+     */
+    Object value(int field) {
+        return fields[field * 2 + 1];
+    }
+
+    /**
+     * Number of pairs in an array of interleaving keys and values, including skipped and overridden ones.
+     */
+    static int pairCount(Object[] pairs) {
+        return (pairs.length + 1) / 2;
+    }
+
+    /**
+     * Gets the value of the pair at the given index of an array of interleaving keys and values. A key without a
+     * value has an empty string as value.
+     */
+    static Object value(Object[] pairs, int pair) {
+        int valueIndex = pair * 2 + 1;
+        return valueIndex < pairs.length ? pairs[valueIndex] : "";
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (copy != null) {
+            return copy.get(key);
+        }
+
+        int index = indexOf(key);
+        return index < 0 ? null : value(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return copy != null ? copy.containsKey(key) : indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return copy != null ? copy.size() : size;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return modifiable().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return modifiable().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        modifiable().clear();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (copy != null) {
+            return copy.entrySet();
+        }
+
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Entries();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Finds the field with the given key.
+     *
+     * @return The index of the field, or -1.
+     */
+    private int indexOf(Object key) {
+        for (int i = 0; i < size; i++) {
+            Object candidate = fields[i * 2];
+            if (key == null ? candidate == null : key.equals(candidate)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Map<String, Object> modifiable() {
+        if (copy == null) {
+            Map<String, Object> modifiable = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                modifiable.put(key(i), value(i));
+            }
+            copy = modifiable;
+        }
+        return copy;
+    }
+
+    /**
+     * Iterates the fields in array order.
+     */
+    private final class Entries implements Iterator<Entry<String, Object>> {
+        private int next;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<String, Object> entry = new SimpleImmutableEntry<>(key(next), value(next));
+            next++;
+            return entry;
+        }
+    }
+
+    /**
+     * Finds the printed pairs of an array of interleaving keys and values in one pass: pairs are visited from the last
+     * to the first, and a pair is printed if its key is not in the open-addressing table of the keys seen so far.
+     * <p>
+     * It is reused between records, so it only allocates for a record with more pairs than any before it. It is not
+     * thread-safe.
+     */
+    static final class Dedupe {
+
+        /**
+         * Index plus one of the pair holding each key seen so far, or 0 for an empty slot.
+         */
+        private int[] slots = new int[16];
+
+        private boolean[] printed = new boolean[8];
+
+        /**
+         * Marks the pairs whose key is not skipped, and not repeated by a later pair.
+         *
+         * @param keys         Array holding the key of pair <code>i</code>, a string or null, at index
+         *                     <code>i * step</code>.
+         * @param skipNullKeys Whether pairs with a null key are left out, rather than kept under the key "null".
+         * @return The number of printed pairs.
+         */
+        int mark(Object[] keys, int step, int pairCount, boolean skipNullKeys) {
+            if (printed.length < pairCount) {
+                printed = new boolean[pairCount];
+            }
+
+            // At least twice the number of keys, so that probing stays short.
+            int capacity = Math.max(16, Integer.highestOneBit(pairCount) << 2);
+            if (slots.length < capacity) {
+                slots = new int[capacity];
+            } else {
+                Arrays.fill(slots, 0, capacity, 0);
+            }
+
+            int mask = capacity - 1;
+            boolean nullSeen = skipNullKeys;
+            int count = 0;
+            for (int pair = pairCount - 1; pair >= 0; pair--) {
+                String key = (String) keys[pair * step];
+                boolean first;
+                if (key == null) {
+                    first = !nullSeen;
+                    nullSeen = true;
+                } else {
+                    first = add(keys, step, mask, key, pair);
+                }
+                printed[pair] = first;
+                if (first) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Checks whether the pair at the given index was marked as printed by the last {@link #mark}.
+         */
+        boolean isPrinted(int pair) {
+            return printed[pair];
+        }
+
+        /**
+         * Adds a key to the table.
+         *
+         * @return <code>false</code> if the key was already in the table.
+         */
+        private boolean add(Object[] keys, int step, int mask, String key, int pair) {
+            int hash = key.hashCode();
+            for (int slot = (hash ^ hash >>> 16) & mask; ; slot = slot + 1 & mask) {
+                int entry = slots[slot];
+                if (entry == 0) {
+                    slots[slot] = pair + 1;
+                    return true;
+                }
+                if (key.equals(keys[(entry - 1) * step])) {
+                    return false;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package id.skyfish.chillog;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.MessageFormat;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+
+/**
+ * Formatting of messages that come from other logging APIs, i.e. {@link System.Logger} and
+ * <code>java.util.logging</code>. Only called once the level is known to be printed.
+ */
+final class ForeignMessages {
+
+    private ForeignMessages() {
+    }
+
+    /**
+     * Localizes a message, and fills in its {@link MessageFormat} parameters, like
+     * <code>java.util.logging.Formatter.formatMessage</code> but without its lock.
+     */
+    static String format(ResourceBundle bundle, String message, Object[] parameters) {
+        if (message == null) {
+            return null;
+        }
+
+        String pattern = message;
+        if (bundle != null) {
+            try {
+                pattern = bundle.getString(message);
+            } catch (MissingResourceException ignored) {
+            }
+        }
+
+        if (parameters == null || parameters.length == 0 || pattern.indexOf('{') < 0) {
+            return pattern;
+        }
+        try {
+            return MessageFormat.format(pattern, parameters);
+        } catch (IllegalArgumentException e) {
+            return pattern;
+        }
+    }
+
+    /**
+     * Prints the stack trace of a throwable, to be used as the full message.
+     */
+    static String stackTrace(Throwable thrown) {
+        if (thrown == null) {
+            return null;
+        }
+
+        StringWriter writer = new StringWriter();
+        thrown.printStackTrace(new PrintWriter(writer));
+        return writer.toString();
+    }
+}
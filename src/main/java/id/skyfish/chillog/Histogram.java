@@ -0,0 +1,79 @@
+package id.skyfish.chillog;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Lock-free histogram of non-negative long values, e.g. latencies in milliseconds.
+ * <p>
+ * Values are counted in power-of-two buckets: bucket 0 holds 0, bucket <i>n</i> holds values from 2<sup>n-1</sup>
+ * to 2<sup>n</sup>-1. Percentiles are reported as the upper bound of the bucket they fall in, so they overestimate by
+ * less than a factor of two.
+ */
+final class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+        max.accumulate(value);
+    }
+
+    /**
+     * Takes the counts recorded so far and starts over.
+     *
+     * @return The counts per bucket, and the maximum value.
+     */
+    Snapshot snapshotAndReset() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.getAndSet(i, 0);
+        }
+        return new Snapshot(counts, max.getThenReset());
+    }
+
+    static final class Snapshot {
+        private final long[] counts;
+        private final long total;
+        final long max;
+
+        Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            this.max = max;
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.total = total;
+        }
+
+        long count() {
+            return total;
+        }
+
+        /**
+         * Gets the upper bound of the bucket that holds the given percentile, capped at the maximum value.
+         *
+         * @param percentile From 0 to 100.
+         */
+        long percentile(double percentile) {
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    long upperBound = (1L << i) - 1;
+                    return Math.min(upperBound, max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package id.skyfish.chillog;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Hostname of the machine where the application is running.
+ * <p>
+ * Resolution starts when this class is initialized, and never blocks the caller. Cheap sources (environment
+ * variables, the kernel hostname file) are consulted synchronously; the DNS-based fallback runs on a daemon thread and
+ * its result is swapped in atomically once known. Until then, the hostname is an empty string.
+ */
+final class Hostname {
+
+    /**
+     * How long the DNS-based fallback may take before its result is discarded.
+     */
+    static final long LOOKUP_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Linux exposes the kernel hostname here. Reading it does not involve DNS.
+     */
+    private static final Path KERNEL_HOSTNAME = Paths.get("/proc/sys/kernel/hostname");
+
+    private static final Resolution resolution =
+            new Resolution(Hostname::fromEnvironment, Hostname::fromKernel, Hostname::lookup);
+
+    private Hostname() {
+    }
+
+    /**
+     * Gets the hostname known so far.
+     *
+     * @return The hostname, or empty string if it has not been resolved (yet).
+     */
+    static String get() {
+        return resolution.get();
+    }
+
+    /**
+     * Waits until the hostname has been resolved, or the timeout elapses.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit    The unit of the timeout argument.
+     * @return <code>true</code> if the hostname has been resolved.
+     */
+    static boolean await(long timeout, TimeUnit unit) {
+        return resolution.await(timeout, unit);
+    }
+
+    /**
+     * A resolution of the hostname from a chain of sources. It starts when it is created, by:
+     * <ol>
+     * <li>Checking whether environment variable called HOSTNAME (or COMPUTERNAME, on Windows) is set. If it is, the
+     * hostname will be set according to the value of this environment value.</li>
+     * <li>If hostname is still not set, reading <code>/proc/sys/kernel/hostname</code>.</li>
+     * <li>If hostname is still not set, starting a daemon thread that calls
+     * <code>InetAddress.getLocalHost().getHostName()</code>. The result is published only if the lookup finishes
+     * within {@link #LOOKUP_TIMEOUT_MILLIS}.</li>
+     * </ol>
+     * The constructor returns immediately in every case. The sources return null when they do not know the hostname;
+     * they are given to the constructor so that each step of the chain can be tested.
+     */
+    static final class Resolution {
+
+        private final AtomicReference<String> current = new AtomicReference<>("");
+
+        private final CountDownLatch resolved = new CountDownLatch(1);
+
+        private final Supplier<String> lookup;
+
+        Resolution(Supplier<String> environment, Supplier<String> kernel, Supplier<String> lookup) {
+            this.lookup = lookup;
+
+            String hostname = environment.get();
+
+            if (hostname == null) {
+                hostname = kernel.get();
+            }
+
+            if (hostname != null) {
+                publish(hostname);
+                return;
+            }
+
+            Thread thread = new Thread(this::lookup, "chillog-hostname");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String get() {
+            return current.get();
+        }
+
+        boolean await(long timeout, TimeUnit unit) {
+            try {
+                return resolved.await(timeout, unit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private void lookup() {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LOOKUP_TIMEOUT_MILLIS);
+            String hostname = lookup.get();
+
+            // A late answer would change the host field of a long-running process, so drop it.
+            if (hostname != null && System.nanoTime() - deadline <= 0) {
+                publish(hostname);
+            } else {
+                resolved.countDown();
+            }
+        }
+
+        private void publish(String hostname) {
+            current.set(hostname);
+            resolved.countDown();
+        }
+    }
+
+    private static String fromEnvironment() {
+        String hostname = System.getenv("HOSTNAME");
+
+        if (isBlank(hostname)) {
+            hostname = System.getenv("COMPUTERNAME");
+        }
+
+        return isBlank(hostname) ? null : hostname;
+    }
+
+    private static String fromKernel() {
+        if (!Files.isReadable(KERNEL_HOSTNAME)) {
+            return null;
+        }
+
+        try {
+            String hostname = new String(Files.readAllBytes(KERNEL_HOSTNAME), StandardCharsets.US_ASCII).trim();
+            return hostname.isEmpty() ? null : hostname;
+        } catch (IOException ignored) {
+            return null;
+        }
+    }
+
+    private static String lookup() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException ignored) {
+            return null;
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
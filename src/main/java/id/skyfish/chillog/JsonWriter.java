@@ -0,0 +1,447 @@
+package id.skyfish.chillog;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Growable byte buffer that writes JSON tokens as UTF-8.
+ * <p>
+ * The writer is reused between records, so encoding a record does not allocate once the buffer has grown to the
+ * size of the largest record. It is not thread-safe.
+ */
+final class JsonWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Whether each ASCII character can be copied into a JSON string as it is.
+     */
+    private static final boolean[] PLAIN = new boolean[0x80];
+
+    static {
+        for (char c = 0x20; c < 0x80; c++) {
+            PLAIN[c] = c != '"' && c != '\\';
+        }
+    }
+
+    private ByteBuffer buffer;
+
+    /**
+     * Whether the buffer is allocated outside of the Java heap.
+     */
+    private final boolean direct;
+
+    /**
+     * Scratch space for formatting numbers, filled from the right.
+     */
+    private final byte[] digits = new byte[20];
+
+    /**
+     * Scratch space for copying strings into a direct buffer. Null for heap buffers, which are copied into directly.
+     */
+    private final byte[] chunk;
+
+    /**
+     * Scratch space for finding the printed key-value pairs of a record. Null until a record has pairs.
+     */
+    private FieldList.Dedupe dedupe;
+
+    /**
+     * Whether the writer is currently used to encode a record. Guards against re-entrant logging, e.g. from a
+     * <code>toString()</code> method that logs.
+     */
+    boolean inUse;
+
+    /**
+     * Number of characters the value being written may still have, or -1 if it is not limited.
+     */
+    private int valueRemaining = -1;
+
+    /**
+     * Size of the writer that the value being written must not exceed, or -1 if it is not limited.
+     */
+    private int valueEnd = -1;
+
+    /**
+     * Whether a value was cut short since the writer was reset, or something else was left out of the record.
+     */
+    boolean truncated;
+
+    JsonWriter(int capacity) {
+        this(capacity, false);
+    }
+
+    /**
+     * @param capacity Initial capacity in bytes.
+     * @param direct   Whether to allocate a direct buffer, which channels can write without copying it first.
+     */
+    JsonWriter(int capacity, boolean direct) {
+        this.direct = direct;
+        this.chunk = direct ? new byte[256] : null;
+        this.buffer = allocate(capacity);
+    }
+
+    /**
+     * Gets the scratch space for finding the printed key-value pairs of the record being written.
+     */
+    FieldList.Dedupe dedupe() {
+        if (dedupe == null) {
+            dedupe = new FieldList.Dedupe();
+        }
+        return dedupe;
+    }
+
+    /**
+     * Discards the content of the writer.
+     */
+    void reset() {
+        buffer.clear();
+        valueRemaining = -1;
+        valueEnd = -1;
+        truncated = false;
+    }
+
+    /**
+     * Number of bytes written so far.
+     */
+    int size() {
+        return buffer.position();
+    }
+
+    /**
+     * Prepares the bytes written so far for reading. The writer must be reset before it is written again.
+     *
+     * @return The underlying buffer, whose remaining bytes are the content of this writer.
+     */
+    ByteBuffer flip() {
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Copies the bytes written so far to a new array.
+     */
+    byte[] toByteArray() {
+        ByteBuffer view = buffer.duplicate();
+        view.flip();
+        byte[] bytes = new byte[view.remaining()];
+        view.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Copies the bytes written so far to a new string.
+     */
+    @Override
+    public String toString() {
+        if (direct) {
+            return new String(toByteArray(), StandardCharsets.UTF_8);
+        }
+        return new String(buffer.array(), buffer.arrayOffset(), buffer.position(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Discards the bytes written after the given size, e.g. a field that failed to encode.
+     */
+    void truncate(int size) {
+        buffer.position(size);
+    }
+
+    void writeByte(byte b) {
+        ensure(1);
+        buffer.put(b);
+    }
+
+    void writeBytes(byte[] bytes) {
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Writes a decimal representation of the value without allocating.
+     */
+    void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeBytes(MIN_LONG);
+            return;
+        }
+
+        ensure(20);
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+
+        int start = digits.length;
+        do {
+            digits[--start] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+
+        buffer.put(digits, start, digits.length - start);
+    }
+
+    /**
+     * Writes a quoted, escaped JSON string.
+     */
+    void writeString(String value) {
+        writeByte((byte) '"');
+        writeEscaped(value);
+        writeByte((byte) '"');
+    }
+
+    /**
+     * Writes a quoted, escaped JSON string, cut after the given number of characters.
+     */
+    void writeString(CharSequence value, int maxLength) {
+        writeString(value, maxLength, -1);
+    }
+
+    /**
+     * Writes a quoted, escaped JSON string, cut after the given number of characters, or before the closing quote
+     * would take the writer past the given size, whichever comes first.
+     */
+    void writeString(CharSequence value, int maxLength, int maxSize) {
+        writeByte((byte) '"');
+        limitValue(maxLength, maxSize < 0 ? -1 : maxSize - 1);
+        writeEscaped(value);
+        endValue();
+        writeByte((byte) '"');
+    }
+
+    /**
+     * Limits the characters written by {@link #writeEscaped(CharSequence)} until {@link #endValue()}, e.g. for a
+     * value that is written in several parts. Characters past the limit are skipped without being read, and the
+     * writer is marked as {@link #truncated}.
+     */
+    void limitValue(int maxLength) {
+        limitValue(maxLength, -1);
+    }
+
+    /**
+     * Limits the characters written until {@link #endValue()} like {@link #limitValue(int)}, and also their encoded
+     * size: the value stops at the last whole character before the writer would exceed <code>maxSize</code> bytes.
+     * Escapes and multi-byte characters are never split.
+     *
+     * @param maxSize The size of the writer that the value must not exceed, or -1 for no limit.
+     */
+    void limitValue(int maxLength, int maxSize) {
+        valueRemaining = maxLength;
+        valueEnd = maxSize;
+    }
+
+    /**
+     * Lifts the limits set by {@link #limitValue(int, int)}.
+     */
+    void endValue() {
+        valueRemaining = -1;
+        valueEnd = -1;
+    }
+
+    /**
+     * Writes the characters of the value escaped for use inside a JSON string, without the quotes.
+     * <p>
+     * Each character is still checked on its own, with a table lookup, but the runs of ASCII characters that need no
+     * escaping, i.e. most of a typical message, are then copied with a single capacity check and array copy. Only the
+     * characters in between go through escaping and UTF-8 encoding. Checking several characters per step, e.g. over
+     * a <code>long</code> view of the bytes, would need the string as Latin-1 bytes first, which no public API gives
+     * without either allocating or checking each character again.
+     */
+    void writeEscaped(CharSequence value) {
+        int length = value.length();
+        if (valueRemaining >= 0) {
+            if (length > valueRemaining) {
+                // Not between the two halves of a surrogate pair.
+                length = valueRemaining > 0 && Character.isHighSurrogate(value.charAt(valueRemaining - 1))
+                        ? valueRemaining - 1
+                        : valueRemaining;
+                valueRemaining = 0;
+                truncated = true;
+            } else {
+                valueRemaining -= length;
+            }
+        }
+
+        int i = 0;
+        while (i < length) {
+            int end = i;
+            while (end < length) {
+                char c = value.charAt(end);
+                if (c >= 0x80 || !PLAIN[c]) {
+                    break;
+                }
+                end++;
+            }
+
+            if (end > i) {
+                if (valueEnd >= 0 && buffer.position() + end - i > valueEnd) {
+                    writePlain(value, i, i + Math.max(0, valueEnd - buffer.position()));
+                    cutValue();
+                    return;
+                }
+                writePlain(value, i, end);
+                i = end;
+            }
+            if (i < length) {
+                int position = buffer.position();
+                i = writeSpecial(value, i, length);
+                if (valueEnd >= 0 && buffer.position() > valueEnd) {
+                    buffer.position(position);
+                    cutValue();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the value being written, once its encoded size has reached its limit.
+     */
+    private void cutValue() {
+        valueRemaining = 0;
+        truncated = true;
+    }
+
+    /**
+     * Writes part of a string that was escaped and encoded beforehand. It is copied as it is, unless it would exceed
+     * a limit of the value, in which case the characters that fit are escaped again.
+     *
+     * @param escaped The escaped and encoded bytes of the value.
+     * @param value   The value, whose length counts towards the limit.
+     */
+    void writeEscaped(byte[] escaped, String value) {
+        if (valueEnd >= 0 && buffer.position() + escaped.length > valueEnd) {
+            writeEscaped(value);
+        } else if (valueRemaining < 0) {
+            writeBytes(escaped);
+        } else if (value.length() <= valueRemaining) {
+            writeBytes(escaped);
+            valueRemaining -= value.length();
+        } else {
+            writeEscaped(value);
+        }
+    }
+
+    /**
+     * Copies characters that need neither escaping nor encoding. Strings are copied with
+     * {@link String#getBytes(int, int, byte[], int)}, which is a plain array copy for Latin-1 strings.
+     * <p>
+     * That method is deprecated because it keeps only the low byte of each character. The characters copied here are
+     * all ASCII, so nothing is lost, and the alternatives are slower: {@link String#getBytes(java.nio.charset.Charset)}
+     * allocates an array per call, and {@link String#getChars(int, int, char[], int)} needs a second loop to narrow
+     * the characters.
+     */
+    @SuppressWarnings("deprecation")
+    private void writePlain(CharSequence value, int start, int end) {
+        int count = end - start;
+        ensure(count);
+        if (!(value instanceof String)) {
+            for (int i = start; i < end; i++) {
+                buffer.put((byte) value.charAt(i));
+            }
+        } else if (buffer.hasArray()) {
+            int position = buffer.position();
+            ((String) value).getBytes(start, end, buffer.array(), buffer.arrayOffset() + position);
+            buffer.position(position + count);
+        } else {
+            for (int i = start; i < end; i += chunk.length) {
+                int chunkEnd = Math.min(end, i + chunk.length);
+                ((String) value).getBytes(i, chunkEnd, chunk, 0);
+                buffer.put(chunk, 0, chunkEnd - i);
+            }
+        }
+    }
+
+    /**
+     * Writes a character that needs escaping or multi-byte encoding.
+     *
+     * @return The index of the next character, past the low surrogate of a pair.
+     */
+    private int writeSpecial(CharSequence value, int index, int length) {
+        char c = value.charAt(index);
+        if (c < 0x80) {
+            writeAscii(c);
+        } else if (c < 0x800) {
+            ensure(2);
+            buffer.put((byte) (0xc0 | c >> 6));
+            buffer.put((byte) (0x80 | c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && index + 1 < length
+                && Character.isLowSurrogate(value.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(++index));
+            ensure(4);
+            buffer.put((byte) (0xf0 | codePoint >> 18));
+            buffer.put((byte) (0x80 | codePoint >> 12 & 0x3f));
+            buffer.put((byte) (0x80 | codePoint >> 6 & 0x3f));
+            buffer.put((byte) (0x80 | codePoint & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+            // Unpaired surrogate, which cannot be encoded as UTF-8.
+            writeByte((byte) '?');
+        } else {
+            ensure(3);
+            buffer.put((byte) (0xe0 | c >> 12));
+            buffer.put((byte) (0x80 | c >> 6 & 0x3f));
+            buffer.put((byte) (0x80 | c & 0x3f));
+        }
+        return index + 1;
+    }
+
+    private void writeAscii(char c) {
+        ensure(6);
+        switch (c) {
+            case '"':
+            case '\\':
+                buffer.put((byte) '\\');
+                buffer.put((byte) c);
+                break;
+            case '\n':
+                buffer.put((byte) '\\');
+                buffer.put((byte) 'n');
+                break;
+            case '\r':
+                buffer.put((byte) '\\');
+                buffer.put((byte) 'r');
+                break;
+            case '\t':
+                buffer.put((byte) '\\');
+                buffer.put((byte) 't');
+                break;
+            case '\b':
+                buffer.put((byte) '\\');
+                buffer.put((byte) 'b');
+                break;
+            case '\f':
+                buffer.put((byte) '\\');
+                buffer.put((byte) 'f');
+                break;
+            default:
+                if (c < 0x20) {
+                    buffer.put((byte) '\\');
+                    buffer.put((byte) 'u');
+                    buffer.put((byte) '0');
+                    buffer.put((byte) '0');
+                    buffer.put(HEX[c >> 4]);
+                    buffer.put(HEX[c & 0xf]);
+                } else {
+                    buffer.put((byte) c);
+                }
+        }
+    }
+
+    private void ensure(int additional) {
+        if (buffer.remaining() >= additional) {
+            return;
+        }
+
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + additional);
+        ByteBuffer grown = allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
@@ -0,0 +1,63 @@
+package id.skyfish.chillog;
+
+import java.util.Map;
+
+/**
+ * A log call whose encoding has been deferred.
+ * <p>
+ * The event keeps references to the arguments of the call as they were passed, so capturing one costs no encoding.
+ * Instances are mutable and meant to be reused.
+ */
+final class LogEvent {
+    ChillogLogger logger;
+    Chillog.Level level;
+    long timestamp;
+
+    /**
+     * The short message, or null if the message is a template.
+     */
+    String shortMessage;
+
+    /**
+     * The short message template, or null.
+     */
+    ChillogTemplate template;
+
+    /**
+     * The arguments of the template, or null.
+     */
+    Object[] arguments;
+
+    String fullMessage;
+
+    /**
+     * Key-value pairs of the <code>String...</code> flavour, or null.
+     */
+    String[] keyValuePairs;
+
+    /**
+     * Additional fields of the <code>Map</code> flavour, or null.
+     */
+    Map<String, Object> additionalFields;
+
+    void set(ChillogLogger logger, Chillog.Level level, long timestamp, String shortMessage,
+             ChillogTemplate template, Object[] arguments, String fullMessage,
+             String[] keyValuePairs, Map<String, Object> additionalFields) {
+        this.logger = logger;
+        this.level = level;
+        this.timestamp = timestamp;
+        this.shortMessage = shortMessage;
+        this.template = template;
+        this.arguments = arguments;
+        this.fullMessage = fullMessage;
+        this.keyValuePairs = keyValuePairs;
+        this.additionalFields = additionalFields;
+    }
+
+    /**
+     * Drops the references to the arguments, so they can be garbage collected.
+     */
+    void clear() {
+        set(null, null, 0, null, null, null, null, null, null);
+    }
+}
@@ -0,0 +1,265 @@
+package id.skyfish.chillog;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The getters of a class whose instances are logged as fields, see {@link ChillogFields}.
+ * <p>
+ * Getters are discovered once per class, and kept as {@link MethodHandle}s adapted to take an {@link Object}. Getters
+ * of primitive types keep their primitive return type, so their values are written without boxing.
+ */
+final class ObjectFields {
+
+    /**
+     * Kinds of getter, by the type they return once adapted.
+     */
+    static final int OBJECT = 0;
+    static final int LONG = 1;
+    static final int BOOLEAN = 2;
+    static final int DOUBLE = 3;
+    static final int FLOAT = 4;
+    static final int CHAR = 5;
+
+    private static final Set<Class<?>> registered = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Incremented on each registration, so that lookups made before it are made again.
+     */
+    private static volatile int registrations;
+
+    /**
+     * The getters of each class, including classes that are logged with <code>toString()</code>.
+     */
+    private static final ClassValue<ObjectFields> byClass = new ClassValue<ObjectFields>() {
+        @Override
+        protected ObjectFields computeValue(Class<?> type) {
+            int generation = registrations;
+            return isEnabled(type) ? new ObjectFields(type, generation) : new ObjectFields(generation);
+        }
+    };
+
+    private final int generation;
+
+    /**
+     * Whether instances of the class are logged as fields.
+     */
+    private final boolean enabled;
+
+    private final String[] names;
+    private final int[] kinds;
+    private final MethodHandle[] getters;
+
+    /**
+     * Creates the lookup result of a class that is logged with <code>toString()</code>.
+     */
+    private ObjectFields(int generation) {
+        this.generation = generation;
+        this.enabled = false;
+        this.names = new String[0];
+        this.kinds = new int[0];
+        this.getters = new MethodHandle[0];
+    }
+
+    private ObjectFields(Class<?> type, int generation) {
+        this.generation = generation;
+        this.enabled = true;
+
+        Method[] methods = type.getMethods();
+        Arrays.sort(methods, Comparator.comparing(Method::getName));
+
+        // A property can have several getters, e.g. a covariant override and the one it overrides, or a getter and
+        // an "is" method: only the one with the most specific return type is kept, so each name is written once.
+        Map<String, Method> properties = new LinkedHashMap<>();
+        for (Method method : methods) {
+            String name = propertyName(method);
+            if (name == null) {
+                continue;
+            }
+
+            Method kept = properties.get(name);
+            if (kept == null || kept.getReturnType().isAssignableFrom(method.getReturnType())) {
+                properties.put(name, method);
+            }
+        }
+
+        List<String> names = new ArrayList<>();
+        List<Integer> kinds = new ArrayList<>();
+        List<MethodHandle> getters = new ArrayList<>();
+        for (Map.Entry<String, Method> property : properties.entrySet()) {
+            MethodHandle getter = unreflect(property.getValue());
+            if (getter == null) {
+                continue;
+            }
+
+            int kind = kindOf(property.getValue().getReturnType());
+            names.add(property.getKey());
+            kinds.add(kind);
+            getters.add(getter.asType(MethodType.methodType(returnTypeOf(kind), Object.class)));
+        }
+
+        this.names = names.toArray(new String[0]);
+        this.kinds = new int[kinds.size()];
+        for (int i = 0; i < this.kinds.length; i++) {
+            this.kinds[i] = kinds.get(i);
+        }
+        this.getters = getters.toArray(new MethodHandle[0]);
+    }
+
+    /**
+     * Gets the getters of the given class.
+     *
+     * @return The getters, or null if instances of the class are not logged as fields.
+     */
+    static ObjectFields of(Class<?> type) {
+        ObjectFields fields = byClass.get(type);
+        if (fields.generation != registrations) {
+            byClass.remove(type);
+            fields = byClass.get(type);
+        }
+        return fields.enabled ? fields : null;
+    }
+
+    /**
+     * Logs instances of the given class, and of its subclasses, as fields.
+     */
+    static synchronized void register(Class<?> type) {
+        if (registered.add(type)) {
+            registrations++;
+        }
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    String name(int index) {
+        return names[index];
+    }
+
+    int kind(int index) {
+        return kinds[index];
+    }
+
+    Object getObject(int index, Object target) throws Throwable {
+        return (Object) getters[index].invokeExact(target);
+    }
+
+    long getLong(int index, Object target) throws Throwable {
+        return (long) getters[index].invokeExact(target);
+    }
+
+    boolean getBoolean(int index, Object target) throws Throwable {
+        return (boolean) getters[index].invokeExact(target);
+    }
+
+    double getDouble(int index, Object target) throws Throwable {
+        return (double) getters[index].invokeExact(target);
+    }
+
+    float getFloat(int index, Object target) throws Throwable {
+        return (float) getters[index].invokeExact(target);
+    }
+
+    char getChar(int index, Object target) throws Throwable {
+        return (char) getters[index].invokeExact(target);
+    }
+
+    private static boolean isEnabled(Class<?> type) {
+        if (type.isAnnotationPresent(ChillogFields.class)) {
+            return true;
+        }
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            if (registered.contains(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the name of the property the method is a getter of, e.g. "name" for <code>getName()</code>.
+     *
+     * @return The property name, or null if the method is not a getter.
+     */
+    private static String propertyName(Method method) {
+        // Bridge methods, e.g. the erased Object getId() of a generic interface, duplicate a getter of the class.
+        if (method.isBridge() || method.isSynthetic()
+                || Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 0
+                || method.getReturnType() == void.class || method.getDeclaringClass() == Object.class) {
+            return null;
+        }
+
+        String name = method.getName();
+        int start;
+        if (name.startsWith("get") && name.length() > 3) {
+            start = 3;
+        } else if (name.startsWith("is") && name.length() > 2 && method.getReturnType() == boolean.class) {
+            start = 2;
+        } else {
+            return null;
+        }
+        return Character.toLowerCase(name.charAt(start)) + name.substring(start + 1);
+    }
+
+    /**
+     * Gets a handle to the method, e.g. for public getters of a class that is not public itself.
+     *
+     * @return The handle, or null if the method cannot be accessed.
+     */
+    private static MethodHandle unreflect(Method method) {
+        try {
+            return MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            try {
+                method.setAccessible(true);
+                return MethodHandles.lookup().unreflect(method);
+            } catch (RuntimeException | IllegalAccessException ignored) {
+                return null;
+            }
+        }
+    }
+
+    private static int kindOf(Class<?> type) {
+        if (type == long.class || type == int.class || type == short.class || type == byte.class) {
+            return LONG;
+        } else if (type == boolean.class) {
+            return BOOLEAN;
+        } else if (type == double.class) {
+            return DOUBLE;
+        } else if (type == float.class) {
+            return FLOAT;
+        } else if (type == char.class) {
+            return CHAR;
+        }
+        return OBJECT;
+    }
+
+    private static Class<?> returnTypeOf(int kind) {
+        switch (kind) {
+            case LONG:
+                return long.class;
+            case BOOLEAN:
+                return boolean.class;
+            case DOUBLE:
+                return double.class;
+            case FLOAT:
+                return float.class;
+            case CHAR:
+                return char.class;
+            default:
+                return Object.class;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package id.skyfish.chillog;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Records encoded back to back into one buffer, so that a batch is handed to the sink in as few writes as possible.
+ * <p>
+ * Sinks pick their output by severity, so consecutive records of the same severity are written together, as a run,
+ * and a change of severity starts a new run.
+ */
+final class RecordBatch {
+
+    /**
+     * Size above which a run is not extended, and a batch is written out, so that sinks with a bounded buffer, such
+     * as {@link UnixSocketSink}, can take it.
+     */
+    static final int MAX_RUN_BYTES = 64 * 1024;
+
+    final JsonWriter writer;
+
+    private Chillog.Level[] levels = new Chillog.Level[8];
+
+    /**
+     * End offset of each run in the writer.
+     */
+    private int[] ends = new int[8];
+
+    private int runs;
+
+    RecordBatch(int capacity) {
+        this.writer = new JsonWriter(capacity);
+    }
+
+    /**
+     * Adds the record that has just been encoded into the writer to the runs.
+     */
+    void endRecord(Chillog.Level level) {
+        int size = writer.size();
+        if (runs > 0 && levels[runs - 1] == level && size - start(runs - 1) <= MAX_RUN_BYTES) {
+            ends[runs - 1] = size;
+            return;
+        }
+
+        if (runs == levels.length) {
+            levels = Arrays.copyOf(levels, runs * 2);
+            ends = Arrays.copyOf(ends, runs * 2);
+        }
+        levels[runs] = level;
+        ends[runs] = size;
+        runs++;
+    }
+
+    /**
+     * Checks whether the batch should be written out before more records are added.
+     */
+    boolean isFull() {
+        return writer.size() >= MAX_RUN_BYTES;
+    }
+
+    boolean isEmpty() {
+        return runs == 0;
+    }
+
+    /**
+     * Writes the runs to a sink, one write each, in order, and empties the batch.
+     */
+    void writeTo(ChillogSink sink) {
+        ByteBuffer buffer = writer.flip();
+        for (int i = 0; i < runs; i++) {
+            buffer.limit(ends[i]);
+            buffer.position(start(i));
+            sink.write(levels[i], buffer);
+        }
+        writer.reset();
+        runs = 0;
+    }
+
+    private int start(int run) {
+        return run > 0 ? ends[run - 1] : 0;
+    }
+}
@@ -0,0 +1,517 @@
+package id.skyfish.chillog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends records to a file, and rotates it into segments when it grows too large.
+ * <p>
+ * The active file is <code>&lt;name&gt;.log</code> in the given directory. When it reaches the maximum size, it is
+ * renamed to <code>&lt;name&gt;.&lt;UTC timestamp&gt;.log</code> and a new active file is started. A maintenance thread
+ * with the lowest priority then compresses the closed segments with gzip, reading them at a bounded rate so it does
+ * not compete with the application for I/O, and deletes the oldest segments beyond the total size and age limits. It
+ * never touches the active file. For example:
+ * <pre>
+ * RotatingFileSink sink = RotatingFileSink.builder(Paths.get("/var/log/app"), "chillog")
+ *         .maxFileSize(256 * 1024 * 1024)
+ *         .maxTotalSize(20L * 1024 * 1024 * 1024)
+ *         .maxAge(3, TimeUnit.DAYS)
+ *         .build();
+ * </pre>
+ * Records that cannot be written are dropped and counted.
+ */
+public final class RotatingFileSink implements ChillogSink, Closeable {
+
+    private static final String SUFFIX = ".log";
+    private static final String COMPRESSED_SUFFIX = ".gz";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final DateTimeFormatter SEGMENT_TIME =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss.SSS").withZone(ZoneOffset.UTC);
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * How often retention is enforced when no segment is rotated, so that segments also expire on quiet hosts.
+     */
+    private static final long RETENTION_CHECK_MINUTES = 10;
+
+    private final Path directory;
+    private final String name;
+    private final Path activeFile;
+
+    /**
+     * Matches the names of the segments of this sink, and of their temporary files, and nothing else. The first group
+     * is the time of the segment, and the second its count within that millisecond, if any.
+     */
+    private final Pattern segmentName;
+    private final long maxFileSize;
+    private final boolean compress;
+    private final long compressionBytesPerSecond;
+    private final long maxTotalSize;
+    private final long maxAgeMillis;
+
+    /**
+     * Reused for every gathering write, under the lock of this sink.
+     */
+    private final ByteBuffer[] slices = new ByteBuffer[2];
+
+    /**
+     * The last header written, and the view of it that this sink writes from, under the lock of this sink.
+     */
+    private ByteBuffer header;
+    private ByteBuffer headerView;
+
+    private final AtomicLong droppedRecords = new AtomicLong();
+
+    private final ScheduledExecutorService maintenance;
+
+    private FileChannel channel;
+    private long size;
+    private String lastSegmentTime;
+    private int segmentsInLastTime;
+
+    private RotatingFileSink(Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.name = builder.name;
+        this.activeFile = directory.resolve(name + SUFFIX);
+        // <name>.<segment time>[-<count>].log[.gz[.tmp]], see nextSegmentTime().
+        this.segmentName = Pattern.compile(Pattern.quote(name) + "\\.(\\d{8}T\\d{6}\\.\\d{3})(?:-(\\d{1,10}))?"
+                + Pattern.quote(SUFFIX) + "(?:" + Pattern.quote(COMPRESSED_SUFFIX)
+                + "(?:" + Pattern.quote(TEMPORARY_SUFFIX) + ")?)?");
+        this.maxFileSize = builder.maxFileSize;
+        this.compress = builder.compress;
+        this.compressionBytesPerSecond = builder.compressionBytesPerSecond;
+        this.maxTotalSize = builder.maxTotalSize;
+        this.maxAgeMillis = builder.maxAgeMillis;
+
+        Files.createDirectories(directory);
+        open();
+
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chillog-maintenance");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        // Also picks up segments left uncompressed by a previous process.
+        maintenance.scheduleWithFixedDelay(this::maintain, 0, RETENTION_CHECK_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Creates a builder for a sink that writes to <code>&lt;name&gt;.log</code> in the given directory.
+     *
+     * @param directory The directory of the active file and of the segments. It is created if it does not exist.
+     * @param name      The name of the files, without extension.
+     * @return A new {@link Builder}.
+     */
+    public static Builder builder(Path directory, String name) {
+        return new Builder(directory, name);
+    }
+
+    @Override
+    public synchronized void write(Chillog.Level level, ByteBuffer record) {
+        if (channel == null) {
+            droppedRecords.incrementAndGet();
+            return;
+        }
+
+        try {
+            reopenIfClosed();
+            size += record.remaining();
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException e) {
+            droppedRecords.incrementAndGet();
+            return;
+        }
+        rotateIfFull();
+    }
+
+    @Override
+    public synchronized void write(Chillog.Level level, ByteBuffer header, ByteBuffer body) {
+        if (channel == null) {
+            droppedRecords.incrementAndGet();
+            return;
+        }
+
+        slices[0] = headerView(header);
+        slices[1] = body;
+        try {
+            reopenIfClosed();
+            size += header.remaining() + body.remaining();
+            while (body.hasRemaining()) {
+                channel.write(slices);
+            }
+        } catch (IOException e) {
+            droppedRecords.incrementAndGet();
+            return;
+        } finally {
+            slices[1] = null;
+        }
+        rotateIfFull();
+    }
+
+    /**
+     * Gets a view of the header, positioned like it, that this sink can move through: the header itself is shared by
+     * every sink of the logger, and must not be changed.
+     */
+    private ByteBuffer headerView(ByteBuffer header) {
+        if (header != this.header) {
+            this.header = header;
+            this.headerView = header.duplicate();
+        }
+        return headerView.limit(header.limit()).position(header.position());
+    }
+
+    /**
+     * Does nothing: records are not buffered in user space.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Number of records that could not be written.
+     *
+     * @return The number of dropped records since this sink was created.
+     */
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    /**
+     * Closes the active file, then compresses the closed segments and enforces retention a last time, waiting for
+     * it to finish.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (channel == null) {
+                return;
+            }
+            channel.close();
+            channel = null;
+        }
+
+        // A last pass, as the periodic one is cancelled by the shutdown.
+        maintenance.execute(this::maintain);
+        maintenance.shutdown();
+        try {
+            maintenance.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(activeFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+    }
+
+    /**
+     * Opens the active file again if a rotation could not.
+     */
+    private void reopenIfClosed() throws IOException {
+        if (!channel.isOpen()) {
+            open();
+        }
+    }
+
+    /**
+     * Turns the active file into a segment once it has reached the maximum size. Only renames files: the segment is
+     * compressed later, by the maintenance thread.
+     * <p>
+     * A rotation that fails does not stop the sink: if the active file cannot be renamed, records keep being
+     * appended to it, and the rotation is tried again after the next record. If the new active file cannot be
+     * opened, the next record tries again.
+     */
+    private void rotateIfFull() {
+        if (size < maxFileSize) {
+            return;
+        }
+
+        boolean rotated;
+        try {
+            channel.close();
+            Files.move(activeFile, directory.resolve(name + '.' + nextSegmentTime() + SUFFIX));
+            rotated = true;
+        } catch (IOException e) {
+            rotated = false;
+        }
+
+        try {
+            open();
+        } catch (IOException ignored) {
+            // Tried again by the next record.
+        }
+
+        if (rotated) {
+            try {
+                maintenance.execute(this::maintain);
+            } catch (RuntimeException ignored) {
+                // Closing: the remaining segments are compressed when a sink is next created.
+            }
+        }
+    }
+
+    /**
+     * Gets the timestamp part of the name of a new segment, unique even for segments rotated in the same millisecond.
+     */
+    private String nextSegmentTime() {
+        String time = SEGMENT_TIME.format(Instant.now());
+        if (time.equals(lastSegmentTime)) {
+            return time + '-' + ++segmentsInLastTime;
+        }
+        lastSegmentTime = time;
+        segmentsInLastTime = 0;
+        return time;
+    }
+
+    /**
+     * Body of the maintenance task: compresses the closed segments, then enforces retention.
+     */
+    private void maintain() {
+        try {
+            if (compress) {
+                for (Path segment : segments()) {
+                    if (segment.getFileName().toString().endsWith(SUFFIX)) {
+                        compress(segment);
+                    }
+                }
+            }
+            enforceRetention();
+        } catch (IOException ignored) {
+            // Tried again on the next rotation, or on the next periodic check.
+        }
+    }
+
+    /**
+     * Lists the closed segments, compressed or not, oldest first. Other files in the directory, even with names that
+     * start like the active file, e.g. <code>app.log.lock</code>, are left alone.
+     */
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                file -> segmentName.matcher(file.getFileName().toString()).matches())) {
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+                    // Left by a compression that was interrupted.
+                    Files.deleteIfExists(file);
+                } else {
+                    segments.add(file);
+                }
+            }
+        }
+        // Not by name: "-1" would sort before the first segment of its millisecond, which has no count, and "-10"
+        // before "-2".
+        segments.sort(Comparator.comparing(this::segmentTime).thenComparingLong(this::segmentCount));
+        return segments;
+    }
+
+    /**
+     * Gets the time in the name of a segment.
+     */
+    private Instant segmentTime(Path segment) {
+        Matcher matcher = segmentName.matcher(segment.getFileName().toString());
+        matcher.matches();
+        return SEGMENT_TIME.parse(matcher.group(1), Instant::from);
+    }
+
+    /**
+     * Gets the count in the name of a segment, i.e. how many segments were rotated before it in the same millisecond.
+     */
+    private long segmentCount(Path segment) {
+        Matcher matcher = segmentName.matcher(segment.getFileName().toString());
+        matcher.matches();
+        return matcher.group(2) == null ? 0 : Long.parseLong(matcher.group(2));
+    }
+
+    /**
+     * Compresses a segment into a temporary file, at most at the configured rate, and replaces the segment with it.
+     */
+    private void compress(Path segment) throws IOException {
+        Path compressed = segment.resolveSibling(segment.getFileName() + COMPRESSED_SUFFIX);
+        Path temporary = segment.resolveSibling(segment.getFileName() + COMPRESSED_SUFFIX + TEMPORARY_SUFFIX);
+
+        long start = System.nanoTime();
+        long copied = 0;
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        try (InputStream input = Files.newInputStream(segment);
+             OutputStream output = new GZIPOutputStream(Files.newOutputStream(temporary), COPY_BUFFER_SIZE)) {
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                output.write(buffer, 0, read);
+                copied += read;
+                throttle(start, copied);
+            }
+        }
+
+        Files.move(temporary, compressed, StandardCopyOption.REPLACE_EXISTING);
+        Files.setLastModifiedTime(compressed, Files.getLastModifiedTime(segment));
+        Files.delete(segment);
+    }
+
+    /**
+     * Sleeps for as long as the copy is ahead of the configured rate.
+     */
+    private void throttle(long start, long copied) throws IOException {
+        long expectedNanos = copied * TimeUnit.SECONDS.toNanos(1) / compressionBytesPerSecond;
+        long aheadNanos = expectedNanos - (System.nanoTime() - start);
+        if (aheadNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(aheadNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("compression interrupted", e);
+            }
+        }
+    }
+
+    /**
+     * Deletes segments older than the maximum age, then the oldest segments until the total size fits.
+     */
+    private void enforceRetention() throws IOException {
+        List<Path> segments = segments();
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+
+        long total = 0;
+        List<Long> sizes = new ArrayList<>();
+        for (Path segment : segments) {
+            long segmentSize = Files.size(segment);
+            sizes.add(segmentSize);
+            total += segmentSize;
+        }
+
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+            if (total > maxTotalSize || Files.getLastModifiedTime(segment).toMillis() < oldest) {
+                Files.deleteIfExists(segment);
+                total -= sizes.get(i);
+            }
+        }
+    }
+
+    /**
+     * Builder of {@link RotatingFileSink}.
+     */
+    public static final class Builder {
+        private final Path directory;
+        private final String name;
+        private long maxFileSize = 100L * 1024 * 1024;
+        private boolean compress = true;
+        private long compressionBytesPerSecond = 16L * 1024 * 1024;
+        private long maxTotalSize = 10L * 1024 * 1024 * 1024;
+        private long maxAgeMillis = TimeUnit.DAYS.toMillis(7);
+
+        private Builder(Path directory, String name) {
+            if (directory == null || name == null) {
+                throw new IllegalArgumentException("directory and name must not be null");
+            }
+            this.directory = directory;
+            this.name = name;
+        }
+
+        /**
+         * Sets the size at which the active file is rotated. Defaults to 100 MiB.
+         *
+         * @param bytes The maximum size of a segment, in bytes.
+         * @return This builder.
+         */
+        public Builder maxFileSize(long bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("bytes must be positive");
+            }
+            this.maxFileSize = bytes;
+            return this;
+        }
+
+        /**
+         * Sets whether closed segments are compressed with gzip. Defaults to <code>true</code>.
+         *
+         * @param compress Whether to compress segments.
+         * @return This builder.
+         */
+        public Builder compress(boolean compress) {
+            this.compress = compress;
+            return this;
+        }
+
+        /**
+         * Sets how fast segments are read for compression. Defaults to 16 MiB per second.
+         *
+         * @param bytesPerSecond The maximum number of uncompressed bytes compressed per second.
+         * @return This builder.
+         */
+        public Builder compressionRate(long bytesPerSecond) {
+            if (bytesPerSecond <= 0) {
+                throw new IllegalArgumentException("bytesPerSecond must be positive");
+            }
+            this.compressionBytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Sets the total size of the segments kept, not counting the active file. Defaults to 10 GiB.
+         *
+         * @param bytes The maximum total size of the segments, in bytes.
+         * @return This builder.
+         */
+        public Builder maxTotalSize(long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("bytes must not be negative");
+            }
+            this.maxTotalSize = bytes;
+            return this;
+        }
+
+        /**
+         * Sets how long segments are kept. Defaults to 7 days.
+         *
+         * @param age  The maximum age of a segment.
+         * @param unit The unit of the age argument.
+         * @return This builder.
+         */
+        public Builder maxAge(long age, TimeUnit unit) {
+            if (age <= 0) {
+                throw new IllegalArgumentException("age must be positive");
+            }
+            this.maxAgeMillis = unit.toMillis(age);
+            return this;
+        }
+
+        /**
+         * Creates the sink, opening the active file.
+         *
+         * @return A new {@link RotatingFileSink}.
+         * @throws IOException If the directory or the active file cannot be created.
+         */
+        public RotatingFileSink build() throws IOException {
+            return new RotatingFileSink(this);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package id.skyfish.chillog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends records to a local agent over a Unix domain socket. Requires JDK 16 or later.
+ * <p>
+ * Records are framed by their trailing line feed, i.e. the stream is newline-delimited JSON. They are appended to a
+ * bounded local buffer, and sent when the sink is flushed or the buffer is full, so records written in a burst, e.g.
+ * by {@link ChillogLanes}, are sent in one write. The socket is non-blocking: what the agent does not accept yet stays
+ * in the buffer, and logging never waits for the agent.
+ * <p>
+ * When the agent is not listening, the sink reconnects at most once per reconnect interval and keeps buffering in the
+ * meantime. Records that do not fit in the buffer are dropped and counted. A record cut by a lost connection is
+ * discarded rather than sent in part over the next one.
+ */
+public final class UnixSocketSink implements ChillogSink, Closeable {
+
+    private static final int DEFAULT_BUFFER_CAPACITY = 1024 * 1024;
+
+    private static final long DEFAULT_RECONNECT_MILLIS = 1000;
+
+    private final UnixDomainSocketAddress address;
+    private final long reconnectNanos;
+
+    /**
+     * Records not sent yet, in write mode.
+     */
+    private final ByteBuffer buffer;
+
+    private final AtomicLong droppedRecords = new AtomicLong();
+
+    private SocketChannel channel;
+    private long nextConnect;
+
+    /**
+     * Whether the last send stopped in the middle of a record.
+     */
+    private boolean partial;
+
+    private boolean closed;
+
+    /**
+     * @param socket The path of the socket the agent listens on.
+     */
+    public UnixSocketSink(Path socket) {
+        this(socket, DEFAULT_BUFFER_CAPACITY, DEFAULT_RECONNECT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param socket         The path of the socket the agent listens on.
+     * @param bufferCapacity The number of bytes kept while the agent is slow or away.
+     * @param reconnectDelay How long to wait between attempts to connect.
+     * @param unit           The unit of the reconnectDelay argument.
+     */
+    public UnixSocketSink(Path socket, int bufferCapacity, long reconnectDelay, TimeUnit unit) {
+        if (socket == null) {
+            throw new IllegalArgumentException("socket must not be null");
+        }
+        if (bufferCapacity <= 0) {
+            throw new IllegalArgumentException("bufferCapacity must be positive");
+        }
+        this.address = UnixDomainSocketAddress.of(socket);
+        this.reconnectNanos = unit.toNanos(reconnectDelay);
+        this.buffer = ByteBuffer.allocateDirect(bufferCapacity);
+        this.nextConnect = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void write(Chillog.Level level, ByteBuffer record) {
+        if (reserve(record.remaining())) {
+            buffer.put(record);
+        }
+    }
+
+    @Override
+    public synchronized void write(Chillog.Level level, ByteBuffer header, ByteBuffer body) {
+        if (reserve(header.remaining() + body.remaining())) {
+            // Absolute put: the header is shared by every sink of the logger, and its position must not change.
+            int length = header.remaining();
+            buffer.put(buffer.position(), header, header.position(), length);
+            buffer.position(buffer.position() + length);
+            buffer.put(body);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        send();
+    }
+
+    /**
+     * Number of records that could not be buffered, or were cut by a lost connection.
+     *
+     * @return The number of dropped records since this sink was created.
+     */
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    /**
+     * Sends what the agent accepts without waiting, and closes the socket.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        send();
+        closed = true;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Makes space for a record, sending buffered records first if needed.
+     *
+     * @return <code>false</code> if the record was dropped.
+     */
+    private boolean reserve(int size) {
+        if (closed) {
+            droppedRecords.incrementAndGet();
+            return false;
+        }
+        if (size > buffer.remaining()) {
+            send();
+        }
+        if (size > buffer.remaining()) {
+            droppedRecords.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void send() {
+        if (buffer.position() == 0 || closed || (channel == null && !connect())) {
+            return;
+        }
+
+        buffer.flip();
+        try {
+            channel.write(buffer);
+            partial = buffer.position() > 0 && buffer.get(buffer.position() - 1) != '\n';
+        } catch (IOException e) {
+            disconnect();
+        } finally {
+            buffer.compact();
+        }
+    }
+
+    private boolean connect() {
+        long now = System.nanoTime();
+        if (now - nextConnect < 0) {
+            return false;
+        }
+
+        SocketChannel connected = null;
+        try {
+            connected = SocketChannel.open(StandardProtocolFamily.UNIX);
+            connected.connect(address);
+            connected.configureBlocking(false);
+        } catch (IOException e) {
+            closeQuietly(connected);
+            nextConnect = now + reconnectNanos;
+            return false;
+        }
+
+        channel = connected;
+        if (partial) {
+            skipPartialRecord();
+        }
+        return true;
+    }
+
+    private void disconnect() {
+        closeQuietly(channel);
+        channel = null;
+        nextConnect = System.nanoTime() + reconnectNanos;
+    }
+
+    /**
+     * Drops the rest of the record the previous connection was cut in, so the new one starts on a record boundary.
+     */
+    private void skipPartialRecord() {
+        int end = buffer.position();
+        for (int i = 0; i < end; i++) {
+            if (buffer.get(i) == '\n') {
+                buffer.flip();
+                buffer.position(i + 1);
+                buffer.compact();
+                break;
+            }
+        }
+        partial = false;
+        droppedRecords.incrementAndGet();
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package id.skyfish.chillog;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Bounded pool of {@link JsonWriter} backed by direct buffers.
+ * <p>
+ * Direct buffers are expensive to allocate and are freed only when collected, so they are recycled rather than kept
+ * per thread. When the pool is empty a new writer is allocated; when it is full a released writer is dropped.
+ */
+final class WriterPool {
+
+    private final ArrayBlockingQueue<JsonWriter> writers;
+    private final int writerCapacity;
+
+    WriterPool(int size, int writerCapacity) {
+        this.writers = new ArrayBlockingQueue<>(size);
+        this.writerCapacity = writerCapacity;
+    }
+
+    JsonWriter acquire() {
+        JsonWriter writer = writers.poll();
+        if (writer == null) {
+            writer = new JsonWriter(writerCapacity, true);
+        }
+        writer.reset();
+        return writer;
+    }
+
+    void release(JsonWriter writer) {
+        writers.offer(writer);
+    }
+}
@@ -0,0 +1,115 @@
+package id.skyfish.chillog;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class ChannelSinkTest {
+
+    @Test
+    public void testDirectBuffersWithGatheringWrites() throws IOException {
+        Path file = Files.createTempFile("chillog", ".log");
+        try (ChannelSink sink = ChannelSink.file(file)) {
+            ChillogLogger logger = ChillogLogger.builder()
+                    .service("fake-service-name")
+                    .sink(sink)
+                    .field("component", "channel")
+                    .directBuffers(2)
+                    .build();
+
+            logger.info("first", null, "key", "value");
+            logger.error("second \u00e9");
+
+            Assert.assertEquals(0, sink.getDroppedRecords());
+        }
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Assert.assertEquals(2, lines.size());
+
+        JSONObject first = JSON.parseObject(lines.get(0));
+        Assert.assertEquals("first", first.getString("short_message"));
+        Assert.assertEquals("channel", first.getString("_component"));
+        Assert.assertEquals("value", first.getString("_key"));
+        Assert.assertEquals("fake-service-name", first.getString("service"));
+
+        JSONObject second = JSON.parseObject(lines.get(1));
+        Assert.assertEquals("second \u00e9", second.getString("short_message"));
+        Assert.assertEquals(3, second.getIntValue("level"));
+
+        Files.delete(file);
+    }
+
+    @Test
+    public void testHeapEncodingToChannel() throws IOException {
+        Path file = Files.createTempFile("chillog", ".log");
+        try (ChannelSink sink = ChannelSink.file(file)) {
+            ChillogLogger logger = ChillogLogger.builder().service("fake-service-name").sink(sink).build();
+            logger.warning("heap");
+        }
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Assert.assertEquals(1, lines.size());
+        Assert.assertEquals("heap", JSON.parseObject(lines.get(0)).getString("short_message"));
+
+        Files.delete(file);
+    }
+
+    @Test
+    public void testDefaultGatheringWriteCopiesBothParts() {
+        ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+        ChillogLogger logger = ChillogLogger.builder()
+                .service("fake-service-name")
+                .sink(sink)
+                .directBuffers(1)
+                .build();
+
+        logger.notice("first");
+        logger.notice("second");
+
+        Assert.assertEquals(2, sink.records.size());
+        Assert.assertEquals("second", JSON.parseObject(sink.records.get(1)).getString("short_message"));
+    }
+
+    @Test
+    public void testSharedHeaderIsNotChanged() throws Exception {
+        ByteBuffer header = ByteBuffer.allocateDirect(16).put("header:".getBytes(StandardCharsets.US_ASCII)).flip()
+                .asReadOnlyBuffer();
+        Path[] files = {Files.createTempFile("chillog", ".log"), Files.createTempFile("chillog", ".log")};
+        Thread[] threads = new Thread[files.length];
+        ChannelSink[] sinks = new ChannelSink[files.length];
+        for (int i = 0; i < files.length; i++) {
+            ChannelSink sink = ChannelSink.file(files[i]);
+            sinks[i] = sink;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    sink.write(Chillog.Level.INFORMATIONAL, header,
+                            ByteBuffer.wrap("body\n".getBytes(StandardCharsets.US_ASCII)));
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < files.length; i++) {
+            threads[i].join();
+            sinks[i].close();
+        }
+
+        Assert.assertEquals(0, header.position());
+        Assert.assertEquals(7, header.limit());
+        for (Path file : files) {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.US_ASCII);
+            Assert.assertEquals(1000, lines.size());
+            for (String line : lines) {
+                Assert.assertEquals("header:body", line);
+            }
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package id.skyfish.chillog;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guards the hot path against added allocation: each test logs in a warmed-up loop, and asserts an upper bound on
+ * the bytes allocated per call by the logging thread, or by the thread that writes the records.
+ */
+public class ChillogAllocationTest {
+
+    private static final int WARM_UP_CALLS = 50_000;
+    private static final int MEASURED_CALLS = 10_000;
+
+    /**
+     * Sink that reads the record without keeping it, so the test measures the logger only.
+     */
+    private static class CountingSink implements ChillogSink {
+        volatile long bytes;
+        volatile long records;
+
+        @Override
+        public void write(Chillog.Level level, ByteBuffer record) {
+            bytes += record.remaining();
+            records++;
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    private static final ChillogTemplate TEMPLATE = Chillog.template("user {} paid {}");
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final CountingSink sink = new CountingSink();
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        Chillog.setDefaultLogger(ChillogLogger.builder()
+                .service("fake-service-name")
+                .sink(sink)
+                .field("component", "allocation")
+                .build());
+    }
+
+    @After
+    public void tearDown() {
+        // Back to what the default logger of the other tests prints to.
+        Chillog.setDefaultLogger(ChillogLogger.builder().service("fake-service-name").build());
+    }
+
+    /**
+     * Runs the call in a loop, and gets the bytes allocated per call by the calling thread once warmed up.
+     */
+    private long bytesPerCall(Runnable call) {
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            call.run();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            call.run();
+        }
+        long after = threads.getThreadAllocatedBytes(threadId);
+
+        Assert.assertTrue(sink.bytes > 0);
+        return (after - before) / MEASURED_CALLS;
+    }
+
+    /**
+     * Runs the call in a loop, and gets the bytes allocated per call by the given thread once warmed up. Each call
+     * must write one record, and the thread is measured until the sink has them all.
+     */
+    private long bytesPerRecord(Runnable call, Thread thread) {
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            call.run();
+        }
+        awaitRecords(WARM_UP_CALLS);
+
+        long before = threads.getThreadAllocatedBytes(thread.getId());
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            call.run();
+        }
+        awaitRecords(WARM_UP_CALLS + MEASURED_CALLS);
+        long after = threads.getThreadAllocatedBytes(thread.getId());
+
+        return (after - before) / MEASURED_CALLS;
+    }
+
+    private void awaitRecords(long count) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (sink.records < count) {
+            Assert.assertTrue("only " + sink.records + " of " + count + " records written",
+                    System.nanoTime() < deadline);
+            Thread.onSpinWait();
+        }
+    }
+
+    private static void assertAtMost(long limit, long actual) {
+        Assert.assertTrue("allocated " + actual + " bytes per call, expected at most " + limit, actual <= limit);
+    }
+
+    @Test
+    public void testShortMessage() {
+        assertAtMost(8, bytesPerCall(() -> Chillog.info("Hello world")));
+    }
+
+    @Test
+    public void testKeyValuePairs() {
+        // The varargs array, unless escape analysis removes it.
+        assertAtMost(48, bytesPerCall(() -> Chillog.info("Hello world", "Full message",
+                "http_request_id", "a1b2c3d4", "http_referer", "https://www.google.com")));
+    }
+
+    @Test
+    public void testMap() {
+        // The varargs array, and the map with its copy of the pairs.
+        assertAtMost(96, bytesPerCall(() -> Chillog.info("Hello world", null,
+                Chillog.map("http_request_id", "a1b2c3d4", "retries", "3"))));
+    }
+
+    @Test
+    public void testPrebuiltMap() {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("http_request_id", "a1b2c3d4");
+        fields.put("http_referer", "https://www.google.com");
+
+        // The entry set iterator, unless escape analysis removes it.
+        assertAtMost(64, bytesPerCall(() -> Chillog.info("Hello world", null, fields)));
+    }
+
+    @Test
+    public void testTemplate() {
+        // The varargs array, unless escape analysis removes it.
+        assertAtMost(48, bytesPerCall(() -> Chillog.info(TEMPLATE, "alice", "1500")));
+    }
+
+    @Test
+    public void testBelowThreshold() {
+        Chillog.setDefaultLogger(ChillogLogger.builder()
+                .service("fake-service-name")
+                .sink(sink)
+                .level(Chillog.Level.INFORMATIONAL)
+                .build());
+        Chillog.info("warm");
+
+        // The varargs array: the threshold is checked before anything else is done.
+        assertAtMost(32, bytesPerCall(() -> Chillog.debug("Hello world", null, "key", "value")));
+    }
+
+    @Test
+    public void testLanes() {
+        ChillogLanes lanes = ChillogLanes.builder()
+                .lane(ChillogLanes.lane(Chillog.Level.DEBUG, 1024, ChillogLanes.Overflow.BLOCK))
+                .build();
+        Chillog.setDefaultLogger(ChillogLogger.builder()
+                .service("fake-service-name")
+                .sink(sink)
+                .lanes(lanes)
+                .build());
+
+        try {
+            // The varargs array: the event slots are reused.
+            assertAtMost(48, bytesPerCall(() -> Chillog.info("Hello world", null, "key", "value")));
+        } finally {
+            lanes.close();
+        }
+    }
+
+    @Test
+    public void testLanesWriterThread() {
+        ChillogLanes lanes = ChillogLanes.builder()
+                .lane(ChillogLanes.lane(Chillog.Level.DEBUG, 1024, ChillogLanes.Overflow.BLOCK))
+                .build();
+        Chillog.setDefaultLogger(ChillogLogger.builder()
+                .service("fake-service-name")
+                .sink(sink)
+                .lanes(lanes)
+                .build());
+
+        try {
+            // Encoding reuses the buffer of the writer thread, and emptying a slot keeps it.
+            assertAtMost(8, bytesPerRecord(() -> Chillog.info("Hello world", null, "key", "value"),
+                    lanes.writerThread()));
+        } finally {
+            lanes.close();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package id.skyfish.chillog;
+
+import com.alibaba.fastjson.JSON;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+
+public class ChillogConfigTest {
+
+    private final ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+
+    private final ChillogLogger logger = ChillogLogger.builder()
+            .service("fake-service-name")
+            .sink(sink)
+            .build();
+
+    private static ChillogConfig config(String... keyValuePairs) {
+        Properties properties = new Properties();
+        for (int i = 0; i < keyValuePairs.length; i += 2) {
+            properties.setProperty(keyValuePairs[i], keyValuePairs[i + 1]);
+        }
+        return ChillogConfig.parse(properties);
+    }
+
+    @Test
+    public void testLevelIsReplaced() throws IOException {
+        logger.configure(config("level", "error"));
+
+        Assert.assertFalse(logger.isEnabled(Chillog.Level.WARNING));
+        logger.warning("dropped");
+        logger.error("printed");
+        Assert.assertEquals(1, sink.records.size());
+
+        // Back to the threshold of the builder.
+        logger.configure(config());
+        Assert.assertTrue(logger.isEnabled(Chillog.Level.DEBUG));
+    }
+
+    @Test
+    public void testNamedLoggerLevelsAreReplaced() throws IOException {
+        ChillogLogger payments = logger.getLogger("com.example.payments.Gateway");
+        ChillogLogger cart = logger.getLogger("com.example.cart.Cart");
+
+        logger.configure(config("level", "WARNING", "level.com.example.payments", "DEBUG"));
+        Assert.assertTrue(payments.isEnabled(Chillog.Level.DEBUG));
+        Assert.assertFalse(cart.isEnabled(Chillog.Level.NOTICE));
+
+        // Named loggers obtained afterwards get the settings in effect.
+        Assert.assertTrue(logger.getLogger("com.example.payments.Refunds").isEnabled(Chillog.Level.DEBUG));
+
+        // Configuring a named logger configures them all.
+        cart.configure(config("level", "ERROR"));
+        Assert.assertFalse(payments.isEnabled(Chillog.Level.WARNING));
+        Assert.assertFalse(logger.isEnabled(Chillog.Level.WARNING));
+    }
+
+    @Test
+    public void testRecordsAreSampledByKey() throws IOException {
+        logger.configure(config("sample.cache miss", "3", "sample.user {} logged in", "2"));
+        ChillogTemplate template = ChillogTemplate.of("user {} logged in");
+
+        for (int i = 0; i < 9; i++) {
+            logger.info("cache miss");
+            logger.info("cache hit");
+            logger.info(template, i);
+        }
+
+        long misses = sink.records.stream().filter(record -> record.contains("cache miss")).count();
+        long logins = sink.records.stream().filter(record -> record.contains("logged in")).count();
+        Assert.assertEquals(3, misses);
+        Assert.assertEquals(5, logins);
+        Assert.assertEquals(9 + 3 + 5, sink.records.size());
+    }
+
+    @Test
+    public void testSinkIsReplaced() throws IOException {
+        Path file = Files.createTempFile("chillog", ".log");
+        try {
+            logger.configure(config("sink", "file:" + file, "buffers.direct", "2"));
+            logger.info("to file");
+
+            logger.configure(config());
+            logger.info("to builder sink");
+
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            Assert.assertEquals(1, lines.size());
+            Assert.assertEquals("to file", JSON.parseObject(lines.get(0)).getString("short_message"));
+            Assert.assertEquals(1, sink.records.size());
+            Assert.assertEquals("to builder sink", JSON.parseObject(sink.records.get(0)).getString("short_message"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testConfigIsLoadedFromFile() throws IOException {
+        Path file = Files.createTempFile("chillog", ".properties");
+        try {
+            String content = "level = NOTICE\nsample.tick = 10\nbuffers.direct = 4\n";
+            Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+            ChillogConfig config = ChillogConfig.load(file);
+
+            Assert.assertEquals(Chillog.Level.NOTICE, config.level);
+            Assert.assertEquals(Integer.valueOf(10), config.sampleRates.get("tick"));
+            Assert.assertEquals(4, config.directBuffers);
+            Assert.assertNull(config.sink);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testInvalidSettingsAreRejected() {
+        String[][] invalid = {
+                {"levle", "DEBUG"},
+                {"level", "verbose"},
+                {"level.com.example", "verbose"},
+                {"sample.tick", "0"},
+                {"buffers.direct", "many"},
+                {"sink", "kafka:topic"},
+                {"sink", "file:"},
+        };
+        for (String[] setting : invalid) {
+            try {
+                config(setting);
+                Assert.fail("accepted " + setting[0] + " = " + setting[1]);
+            } catch (IllegalArgumentException expected) {
+                // Expected.
+            }
+        }
+    }
+}
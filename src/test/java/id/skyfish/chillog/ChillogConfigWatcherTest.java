@@ -0,0 +1,146 @@
+package id.skyfish.chillog;
+
+import com.alibaba.fastjson.JSON;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class ChillogConfigWatcherTest {
+
+    private final ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+
+    private final ChillogLogger logger = ChillogLogger.builder()
+            .service("fake-service-name")
+            .sink(sink)
+            .build();
+
+    private final Path directory;
+    private final Path file;
+
+    public ChillogConfigWatcherTest() throws IOException {
+        this.directory = Files.createTempDirectory("chillog");
+        this.file = directory.resolve("chillog.properties");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private void write(Path path, String content) throws IOException {
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    public void testChangesAreApplied() throws IOException, InterruptedException {
+        write(file, "level = ERROR\n");
+
+        try (ChillogConfigWatcher ignored = ChillogConfigWatcher.watch(file, logger)) {
+            Assert.assertFalse(logger.isEnabled(Chillog.Level.INFORMATIONAL));
+
+            write(file, "level = DEBUG\n");
+            await(() -> logger.isEnabled(Chillog.Level.DEBUG));
+
+            // Replaced with a rename, as editors do.
+            Path replacement = directory.resolve("chillog.properties.new");
+            write(replacement, "level = WARNING\n");
+            Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            await(() -> !logger.isEnabled(Chillog.Level.NOTICE));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    public void testSwappedSymbolicLinkIsFollowed() throws IOException, InterruptedException {
+        // The layout of a Kubernetes ConfigMap volume: chillog.properties -> ..data/chillog.properties, and ..data
+        // -> the directory of the current version, swapped atomically on updates.
+        Files.createDirectory(directory.resolve("..v1"));
+        write(directory.resolve("..v1/chillog.properties"), "level = ERROR\n");
+        Files.createSymbolicLink(directory.resolve("..data"), Paths.get("..v1"));
+        Files.createSymbolicLink(file, Paths.get("..data", "chillog.properties"));
+
+        try (ChillogConfigWatcher ignored = ChillogConfigWatcher.watch(file, logger)) {
+            Assert.assertFalse(logger.isEnabled(Chillog.Level.INFORMATIONAL));
+
+            Files.createDirectory(directory.resolve("..v2"));
+            write(directory.resolve("..v2/chillog.properties"), "level = DEBUG\n");
+            Files.createSymbolicLink(directory.resolve("..data_tmp"), Paths.get("..v2"));
+            Files.move(directory.resolve("..data_tmp"), directory.resolve("..data"), StandardCopyOption.ATOMIC_MOVE);
+            await(() -> logger.isEnabled(Chillog.Level.DEBUG));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    public void testInvalidChangeIsReported() throws IOException, InterruptedException {
+        write(file, "level = INFORMATIONAL\n");
+
+        try (ChillogConfigWatcher ignored = ChillogConfigWatcher.watch(file, logger)) {
+            write(file, "level = LOUD\n");
+            await(() -> !sink.records.isEmpty());
+        }
+
+        Assert.assertEquals("chillog configuration not reloaded",
+                JSON.parseObject(sink.records.get(0)).getString("short_message"));
+        Assert.assertTrue(logger.isEnabled(Chillog.Level.INFORMATIONAL));
+        Assert.assertFalse(logger.isEnabled(Chillog.Level.DEBUG));
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    public void testInvalidFileIsReportedAndWatchedLeniently() throws IOException, InterruptedException {
+        write(file, "level = LOUD\n");
+
+        try (ChillogConfigWatcher ignored = ChillogConfigWatcher.watchLeniently(file, logger)) {
+            Assert.assertEquals(1, sink.records.size());
+            Assert.assertEquals("chillog configuration not loaded",
+                    JSON.parseObject(sink.records.get(0)).getString("short_message"));
+            Assert.assertTrue(logger.isEnabled(Chillog.Level.INFORMATIONAL));
+
+            write(file, "level = ERROR\n");
+            await(() -> !logger.isEnabled(Chillog.Level.INFORMATIONAL));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    public void testMissingFileIsAppliedOnceCreated() throws IOException, InterruptedException {
+        try (ChillogConfigWatcher ignored = ChillogConfigWatcher.watchLeniently(file, logger)) {
+            Assert.assertEquals(1, sink.records.size());
+
+            write(file, "level = ERROR\n");
+            await(() -> !logger.isEnabled(Chillog.Level.INFORMATIONAL));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFileIsRejectedUpFront() throws IOException {
+        write(file, "level = LOUD\n");
+
+        ChillogConfigWatcher.watch(file, logger);
+    }
+}
@@ -0,0 +1,87 @@
+package id.skyfish.chillog;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+public class ChillogHandlerTest {
+
+    private final ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+
+    private final ChillogHandler handler = new ChillogHandler(ChillogLogger.builder()
+            .service("fake-service-name")
+            .sink(sink)
+            .level(Chillog.Level.INFORMATIONAL)
+            .build());
+
+    @Test
+    public void testRecordIsPrinted() {
+        LogRecord record = new LogRecord(Level.WARNING, "disk {0} is {1}% full");
+        record.setLoggerName("com.example.Disk");
+        record.setParameters(new Object[]{"/dev/sda", 95});
+
+        handler.publish(record);
+
+        JSONObject printed = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals("disk /dev/sda is 95% full", printed.getString("short_message"));
+        Assert.assertEquals(4, printed.getIntValue("level"));
+        Assert.assertEquals("com.example.Disk", printed.getString("_logger"));
+    }
+
+    @Test
+    public void testThrownIsFullMessage() {
+        LogRecord record = new LogRecord(Level.SEVERE, "failed");
+        record.setThrown(new IllegalStateException("boom"));
+
+        handler.publish(record);
+
+        JSONObject printed = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals(3, printed.getIntValue("level"));
+        Assert.assertTrue(printed.getString("full_message").startsWith("java.lang.IllegalStateException: boom"));
+    }
+
+    @Test
+    public void testLevelsMap() {
+        Assert.assertEquals(Chillog.Level.ERROR, ChillogHandler.toChillog(Level.SEVERE));
+        Assert.assertEquals(Chillog.Level.WARNING, ChillogHandler.toChillog(Level.WARNING));
+        Assert.assertEquals(Chillog.Level.INFORMATIONAL, ChillogHandler.toChillog(Level.INFO));
+        Assert.assertEquals(Chillog.Level.DEBUG, ChillogHandler.toChillog(Level.CONFIG));
+        Assert.assertEquals(Chillog.Level.DEBUG, ChillogHandler.toChillog(Level.FINEST));
+    }
+
+    @Test
+    public void testBelowThresholdIsNotFormatted() {
+        LogRecord record = new LogRecord(Level.FINE, "value {0}");
+        record.setParameters(new Object[]{new Object() {
+            @Override
+            public String toString() {
+                throw new AssertionError("formatted below threshold");
+            }
+        }});
+
+        handler.publish(record);
+
+        Assert.assertTrue(sink.records.isEmpty());
+    }
+
+    @Test
+    public void testJulLoggerRoutesThroughHandler() {
+        Logger logger = Logger.getLogger("id.skyfish.chillog.ChillogHandlerTest");
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+        try {
+            logger.info("through jul");
+        } finally {
+            logger.removeHandler(handler);
+        }
+
+        JSONObject printed = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals("through jul", printed.getString("short_message"));
+        Assert.assertEquals("id.skyfish.chillog.ChillogHandlerTest", printed.getString("_logger"));
+    }
+}
@@ -0,0 +1,244 @@
+package id.skyfish.chillog;
+
+import com.alibaba.fastjson.JSON;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ChillogLanesTest {
+
+    /**
+     * Sink that holds the writer thread on its first record until released.
+     */
+    private static class GatedSink extends ChillogLoggerTest.RecordingSink {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public void write(Chillog.Level level, ByteBuffer record) {
+            entered.countDown();
+            try {
+                released.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.write(level, record);
+        }
+    }
+
+    private static String shortMessage(ChillogLoggerTest.RecordingSink sink, int index) {
+        return JSON.parseObject(sink.records.get(index)).getString("short_message");
+    }
+
+    @Test
+    public void testCloseWritesQueuedRecordsInOrder() {
+        ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+        ChillogLanes lanes = ChillogLanes.builder().build();
+        ChillogLogger logger = ChillogLogger.builder().service("fake-service-name").sink(sink).lanes(lanes).build();
+
+        for (int i = 0; i < 100; i++) {
+            logger.info("record " + i, null, "index", String.valueOf(i));
+        }
+        lanes.close();
+
+        Assert.assertEquals(100, sink.records.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("record " + i, shortMessage(sink, i));
+        }
+        Assert.assertEquals(0, lanes.getDroppedRecords());
+    }
+
+    @Test
+    public void testSevereLaneIsDrainedFirst() throws InterruptedException {
+        GatedSink sink = new GatedSink();
+        ChillogLanes lanes = ChillogLanes.builder().build();
+        ChillogLogger logger = ChillogLogger.builder().service("fake-service-name").sink(sink).lanes(lanes).build();
+
+        logger.debug("first");
+        Assert.assertTrue(sink.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            logger.debug("flood");
+        }
+        logger.critical("incident");
+        sink.released.countDown();
+        lanes.close();
+
+        Assert.assertEquals(12, sink.records.size());
+        Assert.assertEquals("first", shortMessage(sink, 0));
+        Assert.assertEquals("incident", shortMessage(sink, 1));
+        Assert.assertEquals("flood", shortMessage(sink, 2));
+    }
+
+    @Test
+    public void testFullLaneDropsNewest() throws InterruptedException {
+        GatedSink sink = new GatedSink();
+        ChillogLanes lanes = ChillogLanes.builder()
+                .lane(ChillogLanes.lane(Chillog.Level.ERROR, 16, ChillogLanes.Overflow.BLOCK).flushImmediately())
+                .lane(ChillogLanes.lane(Chillog.Level.DEBUG, 3, ChillogLanes.Overflow.DROP_NEWEST))
+                .build();
+        ChillogLogger logger = ChillogLogger.builder().service("fake-service-name").sink(sink).lanes(lanes).build();
+
+        logger.info("in flight");
+        Assert.assertTrue(sink.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            logger.info("queued " + i);
+        }
+        logger.error("kept");
+        sink.released.countDown();
+        lanes.close();
+
+        Assert.assertEquals(3, lanes.getDroppedRecords());
+        Assert.assertEquals(4, sink.records.size());
+        Assert.assertEquals("kept", shortMessage(sink, 1));
+        Assert.assertEquals("queued 0", shortMessage(sink, 2));
+        Assert.assertEquals("queued 1", shortMessage(sink, 3));
+    }
+
+    @Test
+    public void testFullLaneDropsOldest() throws InterruptedException {
+        GatedSink sink = new GatedSink();
+        ChillogLanes lanes = ChillogLanes.builder()
+                .lane(ChillogLanes.lane(Chillog.Level.DEBUG, 3, ChillogLanes.Overflow.DROP_OLDEST))
+                .build();
+        ChillogLogger logger = ChillogLogger.builder().service("fake-service-name").sink(sink).lanes(lanes).build();
+
+        logger.info("in flight");
+        Assert.assertTrue(sink.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            logger.info("queued " + i);
+        }
+        sink.released.countDown();
+        lanes.close();
+
+        Assert.assertEquals(3, lanes.getDroppedRecords());
+        Assert.assertEquals("queued 3", shortMessage(sink, 1));
+        Assert.assertEquals("queued 4", shortMessage(sink, 2));
+    }
+
+    @Test
+    public void testSlotsAreReused() throws InterruptedException {
+        ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+        ChillogLanes lanes = ChillogLanes.builder()
+                .lane(ChillogLanes.lane(Chillog.Level.DEBUG, 4, ChillogLanes.Overflow.BLOCK))
+                .build();
+        ChillogLogger logger = ChillogLogger.builder().service("fake-service-name").sink(sink).lanes(lanes).build();
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            String name = "thread " + t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 250; i++) {
+                    logger.info(name, null, "index", String.valueOf(i));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        lanes.close();
+
+        Assert.assertEquals(0, lanes.getDroppedRecords());
+        Assert.assertEquals(1000, sink.records.size());
+        int next = 0;
+        for (int i = 0; i < sink.records.size(); i++) {
+            if ("thread 0".equals(shortMessage(sink, i))) {
+                Assert.assertEquals(String.valueOf(next++), JSON.parseObject(sink.records.get(i)).getString("_index"));
+            }
+        }
+        Assert.assertEquals(250, next);
+    }
+
+    @Test(timeout = 10_000)
+    public void testErrorFromValueDropsOnlyItsRecord() {
+        ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+        ChillogLanes lanes = ChillogLanes.builder()
+                .lane(ChillogLanes.lane(Chillog.Level.DEBUG, 2, ChillogLanes.Overflow.BLOCK))
+                .build();
+        ChillogLogger logger = ChillogLogger.builder().service("fake-service-name").sink(sink).lanes(lanes).build();
+        Object broken = new Object() {
+            @Override
+            public String toString() {
+                throw new AssertionError("broken value");
+            }
+        };
+
+        logger.info("broken", null, Chillog.map("value", broken));
+        for (int i = 0; i < 5; i++) {
+            logger.info("record " + i);
+        }
+        lanes.close();
+
+        Assert.assertEquals(5, sink.records.size());
+        Assert.assertEquals("record 4", shortMessage(sink, 4));
+        Assert.assertEquals(1, lanes.getDroppedRecords());
+    }
+
+    @Test(timeout = 10_000)
+    public void testRecordLoggedByWriterThreadIsWrittenRightAway() throws InterruptedException {
+        CountDownLatch logged = new CountDownLatch(1);
+        ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+        ChillogLanes lanes = ChillogLanes.builder()
+                .lane(ChillogLanes.lane(Chillog.Level.DEBUG, 1, ChillogLanes.Overflow.BLOCK))
+                .build();
+        ChillogLogger logger = ChillogLogger.builder().service("fake-service-name").sink(sink).lanes(lanes).build();
+        Object logging = new Object() {
+            @Override
+            public String toString() {
+                // The only slot of the lane holds the record being encoded.
+                logger.info("from toString");
+                logged.countDown();
+                return "value";
+            }
+        };
+
+        logger.info("outer", null, Chillog.map("value", logging));
+        // Before closing, which would let the inner call write its record itself.
+        Assert.assertTrue(logged.await(5, TimeUnit.SECONDS));
+        lanes.close();
+
+        Assert.assertEquals(2, sink.records.size());
+        Assert.assertEquals("from toString", shortMessage(sink, 0));
+        Assert.assertEquals("outer", shortMessage(sink, 1));
+        Assert.assertEquals(0, lanes.getDroppedRecords());
+    }
+
+    @Test
+    public void testRecordsLoggedWhileClosingAreWritten() throws InterruptedException {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+            ChillogLanes lanes = ChillogLanes.builder().build();
+            ChillogLogger logger =
+                    ChillogLogger.builder().service("fake-service-name").sink(sink).lanes(lanes).build();
+            CountDownLatch started = new CountDownLatch(4);
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(() -> {
+                    started.countDown();
+                    for (int j = 0; j < 500; j++) {
+                        logger.notice("record");
+                    }
+                });
+                threads[i].start();
+            }
+
+            started.await();
+            lanes.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            Assert.assertEquals(threads.length * 500, sink.records.size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLeastSevereLaneMustCoverDebug() {
+        ChillogLanes.builder()
+                .lane(ChillogLanes.lane(Chillog.Level.ERROR, 16, ChillogLanes.Overflow.BLOCK))
+                .build();
+    }
+}
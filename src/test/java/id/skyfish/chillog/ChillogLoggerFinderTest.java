@@ -0,0 +1,97 @@
+package id.skyfish.chillog;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+public class ChillogLoggerFinderTest {
+
+    private final ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+
+    @Before
+    public void setUp() {
+        Chillog.setDefaultLogger(ChillogLogger.builder()
+                .service("fake-service-name")
+                .sink(sink)
+                .level(Chillog.Level.INFORMATIONAL)
+                .build());
+    }
+
+    @After
+    public void tearDown() {
+        // Back to what the default logger of the other tests prints to.
+        Chillog.setDefaultLogger(ChillogLogger.builder().service("fake-service-name").build());
+    }
+
+    @Test
+    public void testFinderIsRegistered() {
+        Assert.assertTrue(System.LoggerFinder.getLoggerFinder() instanceof ChillogLoggerFinder);
+    }
+
+    @Test
+    public void testSystemLoggerPrintsThroughDefaultLogger() {
+        System.Logger logger = System.getLogger("com.example.Cache");
+        logger.log(System.Logger.Level.WARNING, "evicted {0} entries", 42);
+
+        JSONObject printed = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals("evicted 42 entries", printed.getString("short_message"));
+        Assert.assertEquals(4, printed.getIntValue("level"));
+        Assert.assertEquals("com.example.Cache", printed.getString("_logger"));
+    }
+
+    @Test
+    public void testLevelIsCheckedBeforeFormatting() {
+        System.Logger logger = new ChillogLoggerFinder().getLogger("com.example.Cache", getClass().getModule());
+
+        Assert.assertFalse(logger.isLoggable(System.Logger.Level.DEBUG));
+        Assert.assertFalse(logger.isLoggable(System.Logger.Level.OFF));
+        Assert.assertTrue(logger.isLoggable(System.Logger.Level.INFO));
+
+        logger.log(System.Logger.Level.DEBUG, () -> {
+            throw new AssertionError("supplied below threshold");
+        });
+        logger.log(System.Logger.Level.ERROR, "failed", new IllegalStateException("boom"));
+
+        Assert.assertEquals(1, sink.records.size());
+        JSONObject printed = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals(3, printed.getIntValue("level"));
+        Assert.assertTrue(printed.getString("full_message").startsWith("java.lang.IllegalStateException: boom"));
+    }
+
+    @Test
+    public void testLoggersAreCachedByName() {
+        ChillogLoggerFinder finder = new ChillogLoggerFinder();
+
+        Assert.assertSame(finder.getLogger("a", getClass().getModule()), finder.getLogger("a", getClass().getModule()));
+    }
+
+    @Test
+    public void testRecordsArePrintedAsTextWithoutDefaultLogger() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stream = new PrintStream(output, true, StandardCharsets.UTF_8);
+        ChillogSystemLogger.Fallback fallback = new ChillogSystemLogger.Fallback(() -> stream);
+        System.Logger logger = new ChillogSystemLogger("com.example.Cache", () -> {
+            throw new RuntimeException("SERVICE_NAME is not set");
+        }, fallback);
+
+        Assert.assertTrue(logger.isLoggable(System.Logger.Level.INFO));
+        Assert.assertFalse(logger.isLoggable(System.Logger.Level.DEBUG));
+        logger.log(System.Logger.Level.DEBUG, "dropped");
+        logger.log(System.Logger.Level.WARNING, "evicted {0} entries", 42);
+        logger.log(System.Logger.Level.ERROR, "failed", new IllegalStateException("boom"));
+
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        Assert.assertTrue(lines[0].contains("SERVICE_NAME is not set"));
+        Assert.assertEquals("WARNING com.example.Cache: evicted 42 entries", lines[1]);
+        Assert.assertEquals("ERROR com.example.Cache: failed", lines[2]);
+        Assert.assertEquals("java.lang.IllegalStateException: boom", lines[3]);
+        Assert.assertEquals(1, output.toString(StandardCharsets.UTF_8).split("SERVICE_NAME", -1).length - 1);
+    }
+}
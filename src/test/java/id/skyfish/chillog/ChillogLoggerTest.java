@@ -0,0 +1,280 @@
+package id.skyfish.chillog;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChillogLoggerTest {
+
+    @Test
+    public void testFixedFieldsArePrinted() {
+        RecordingSink sink = new RecordingSink();
+        ChillogLogger logger = ChillogLogger.builder()
+                .service("billing-service")
+                .sink(sink)
+                .field("component", "invoice")
+                .build();
+
+        logger.info("This is a short message", "This supposed to be a long message", "key1", "value1");
+
+        Assert.assertEquals(1, sink.records.size());
+        JSONObject json = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals("billing-service", json.getString("service"));
+        Assert.assertEquals("invoice", json.getString("_component"));
+        Assert.assertEquals("value1", json.getString("_key1"));
+        Assert.assertEquals(6, json.getIntValue("level"));
+    }
+
+    @Test
+    public void testFixedFieldTakesPrecedence() {
+        RecordingSink sink = new RecordingSink();
+        ChillogLogger logger = ChillogLogger.builder()
+                .service("billing-service")
+                .sink(sink)
+                .field("component", "invoice")
+                .build();
+
+        logger.info("This is a short message", null, "component", "override");
+
+        JSONObject json = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals("invoice", json.getString("_component"));
+    }
+
+    @Test
+    public void testLastDuplicateKeyIsPrinted() {
+        RecordingSink sink = new RecordingSink();
+        ChillogLogger logger = ChillogLogger.builder()
+                .service("billing-service")
+                .sink(sink)
+                .build();
+
+        logger.info("first", null, "key", "1", "other", "2", "key", "3");
+        String[] pairs = new String[60];
+        for (int i = 0; i < 30; i++) {
+            pairs[i * 2] = "key" + i % 4;
+            pairs[i * 2 + 1] = Integer.toString(i);
+        }
+        logger.info("second", null, pairs);
+
+        Assert.assertTrue(sink.records.get(0).endsWith(",\"_other\":\"2\",\"_key\":\"3\"}\n"));
+        Assert.assertTrue(sink.records.get(1).endsWith(
+                ",\"_key2\":\"26\",\"_key3\":\"27\",\"_key0\":\"28\",\"_key1\":\"29\"}\n"));
+    }
+
+    @Test
+    public void testLevelThreshold() {
+        RecordingSink sink = new RecordingSink();
+        ChillogLogger logger = ChillogLogger.builder()
+                .service("billing-service")
+                .sink(sink)
+                .level(Chillog.Level.WARNING)
+                .build();
+
+        logger.debug("dropped");
+        logger.info("dropped", null, "key", "value");
+        logger.warning("kept");
+        logger.alert("kept");
+
+        Assert.assertEquals(2, sink.records.size());
+        Assert.assertFalse(logger.isEnabled(Chillog.Level.NOTICE));
+        Assert.assertTrue(logger.isEnabled(Chillog.Level.WARNING));
+    }
+
+    @Test
+    public void testEscapesStrings() {
+        RecordingSink sink = new RecordingSink();
+        ChillogLogger logger = ChillogLogger.builder().service("billing-service").sink(sink).build();
+
+        logger.error("quote \" backslash \\ tab \t", "line\nbreak \u0001 caf\u00e9 \ud83d\ude00", "id", "42");
+
+        JSONObject json = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals("quote \" backslash \\ tab \t", json.getString("short_message"));
+        Assert.assertEquals("line\nbreak \u0001 caf\u00e9 \ud83d\ude00", json.getString("full_message"));
+        Assert.assertEquals("42", json.getString("__id"));
+        Assert.assertFalse(json.containsKey("_id"));
+    }
+
+    @Test
+    public void testNamedLoggerPrintsName() {
+        RecordingSink sink = new RecordingSink();
+        ChillogLogger logger = ChillogLogger.builder()
+                .service("billing-service")
+                .sink(sink)
+                .field("component", "invoice")
+                .build();
+        ChillogLogger named = logger.getLogger("com.example.billing.Invoices");
+
+        named.info("named", null, "logger", "ignored");
+
+        JSONObject json = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals("com.example.billing.Invoices", json.getString("_logger"));
+        Assert.assertEquals("invoice", json.getString("_component"));
+        Assert.assertEquals("com.example.billing.Invoices", named.getName());
+        Assert.assertSame(named, logger.getLogger("com.example.billing.Invoices"));
+        Assert.assertSame(named, named.getLogger("com.example.billing.Invoices"));
+        Assert.assertNull(logger.getName());
+    }
+
+    @Test
+    public void testNamedLoggerThresholdIsLongestPrefix() {
+        RecordingSink sink = new RecordingSink();
+        ChillogLogger logger = ChillogLogger.builder()
+                .service("billing-service")
+                .sink(sink)
+                .level(Chillog.Level.WARNING)
+                .level("com.example", Chillog.Level.INFORMATIONAL)
+                .level("com.example.billing", Chillog.Level.DEBUG)
+                .build();
+
+        Assert.assertTrue(logger.getLogger("com.example.billing.Invoices$Line").isEnabled(Chillog.Level.DEBUG));
+        Assert.assertTrue(logger.getLogger("com.example.Cart").isEnabled(Chillog.Level.INFORMATIONAL));
+        Assert.assertFalse(logger.getLogger("com.example.Cart").isEnabled(Chillog.Level.DEBUG));
+        Assert.assertFalse(logger.getLogger("com.examples.Cart").isEnabled(Chillog.Level.INFORMATIONAL));
+        Assert.assertFalse(logger.isEnabled(Chillog.Level.INFORMATIONAL));
+
+        logger.getLogger("com.example.billing.Invoices").debug("printed");
+        logger.getLogger("org.other.Thing").info("dropped");
+        Assert.assertEquals(1, sink.records.size());
+    }
+
+    @Test
+    public void testLongValuesAreTruncated() {
+        RecordingSink sink = new RecordingSink();
+        ChillogLogger logger = ChillogLogger.builder()
+                .service("billing-service")
+                .sink(sink)
+                .maxLengths(5, 6, 4)
+                .build();
+
+        logger.error("short message", "full message", Chillog.map(
+                "string", "123456",
+                "builder", new StringBuilder("abcdefgh"),
+                "object", 1234567,
+                "short", "ok"));
+        logger.info(ChillogTemplate.of("{} and {}"), "first", "second");
+        logger.info("fits", "fits", "key", "1234");
+
+        JSONObject json = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals("short", json.getString("short_message"));
+        Assert.assertEquals("full m", json.getString("full_message"));
+        Assert.assertEquals("1234", json.getString("_string"));
+        Assert.assertEquals("abcd", json.getString("_builder"));
+        Assert.assertEquals("1234", json.getString("_object"));
+        Assert.assertEquals("ok", json.getString("_short"));
+        Assert.assertEquals("true", json.getString("_truncated"));
+
+        Assert.assertEquals("first", JSON.parseObject(sink.records.get(1)).getString("short_message"));
+        Assert.assertFalse(JSON.parseObject(sink.records.get(2)).containsKey("_truncated"));
+    }
+
+    @Test
+    public void testFieldsPastRecordSizeAreLeftOut() {
+        RecordingSink sink = new RecordingSink();
+        ChillogLogger logger = ChillogLogger.builder()
+                .service("billing-service")
+                .sink(sink)
+                .maxRecordSize(400)
+                .build();
+
+        String[] pairs = new String[40];
+        for (int i = 0; i < 20; i++) {
+            pairs[i * 2] = "field" + i;
+            pairs[i * 2 + 1] = "value of twenty char";
+        }
+        logger.info("many fields", null, pairs);
+
+        String record = sink.records.get(0);
+        Assert.assertTrue(record.length() <= 400);
+        JSONObject json = JSON.parseObject(record);
+        Assert.assertEquals("true", json.getString("_truncated"));
+        Assert.assertTrue(json.containsKey("_field0"));
+        Assert.assertFalse(json.containsKey("_field19"));
+    }
+
+    @Test
+    public void testMessagesAreCutAtRecordSize() {
+        String wide = "\u00e9\"\ud83d\ude00".repeat(1000);
+        for (boolean direct : new boolean[]{false, true}) {
+            RecordingSink sink = new RecordingSink();
+            ChillogLogger.Builder builder = ChillogLogger.builder()
+                    .service("billing-service")
+                    .sink(sink)
+                    .maxRecordSize(1024);
+            ChillogLogger logger = direct ? builder.directBuffers(1).build() : builder.build();
+
+            logger.info("short", wide);
+            logger.info(wide, null);
+            logger.info(ChillogTemplate.of("{} and {}"), wide, wide);
+
+            for (String record : sink.records) {
+                Assert.assertTrue(record.getBytes(StandardCharsets.UTF_8).length <= 1024);
+                JSONObject json = JSON.parseObject(record);
+                Assert.assertEquals("true", json.getString("_truncated"));
+                String message = json.containsKey("full_message")
+                        ? json.getString("full_message")
+                        : json.getString("short_message");
+                Assert.assertTrue(message.length() > 100);
+                Assert.assertTrue(wide.startsWith(message));
+            }
+        }
+    }
+
+    @Test
+    public void testReplacedSinkIsClosedOnceWritesAreDone() {
+        ClosingSink sink = new ClosingSink();
+        ChillogLogger.SinkLease lease = new ChillogLogger.SinkLease(sink);
+
+        // A write in flight, then the settings replaced.
+        Assert.assertTrue(lease.acquire());
+        lease.release();
+        Assert.assertEquals(0, sink.closed);
+
+        lease.release();
+        Assert.assertEquals(1, sink.closed);
+        Assert.assertFalse(lease.acquire());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testServiceNameIsRequired() {
+        ChillogLogger.builder().service(null).build();
+    }
+
+    /**
+     * Sink that counts how often it is closed.
+     */
+    private static class ClosingSink extends RecordingSink implements Closeable {
+        int closed;
+
+        @Override
+        public void close() {
+            closed++;
+        }
+    }
+
+    /**
+     * Sink that keeps the records it receives.
+     */
+    static class RecordingSink implements ChillogSink {
+        final List<String> records = new ArrayList<>();
+        final List<Chillog.Level> levels = new ArrayList<>();
+
+        @Override
+        public synchronized void write(Chillog.Level level, ByteBuffer record) {
+            byte[] bytes = new byte[record.remaining()];
+            record.duplicate().get(bytes);
+            records.add(new String(bytes, StandardCharsets.UTF_8));
+            levels.add(level);
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+}
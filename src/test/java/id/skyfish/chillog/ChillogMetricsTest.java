@@ -0,0 +1,141 @@
+package id.skyfish.chillog;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class ChillogMetricsTest {
+
+    @Test
+    public void testAggregatesAndSamples() {
+        ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+        ChillogMetrics metrics = ChillogMetrics.builder()
+                .rule(ChillogMetrics.rule("payment processed", Chillog.Level.INFORMATIONAL)
+                        .sum("_amount")
+                        .histogram("latency_ms")
+                        .sampleOneIn(10))
+                .interval(1, TimeUnit.HOURS)
+                .build();
+        ChillogLogger logger = ChillogLogger.builder()
+                .service("fake-service-name")
+                .sink(sink)
+                .metrics(metrics)
+                .build();
+
+        for (int i = 1; i <= 20; i++) {
+            logger.info("payment processed", null, "amount", "2.5", "latency_ms", String.valueOf(i));
+        }
+        logger.info("unrelated");
+
+        // 2 of the 20 matched records are sampled, the unrelated one is untouched.
+        Assert.assertEquals(3, sink.records.size());
+
+        metrics.flush();
+
+        Assert.assertEquals(4, sink.records.size());
+        JSONObject summary = JSON.parseObject(sink.records.get(3));
+        Assert.assertEquals(ChillogMetrics.SUMMARY_MESSAGE, summary.getString("short_message"));
+        Assert.assertEquals("payment processed", summary.getString("_metric"));
+        Assert.assertEquals("20", summary.getString("_count"));
+        Assert.assertEquals("50.0", summary.getString("_amount_sum"));
+        Assert.assertEquals("15", summary.getString("_latency_ms_p50"));
+        Assert.assertEquals("20", summary.getString("_latency_ms_max"));
+
+        metrics.close();
+    }
+
+    @Test
+    public void testEveryMatchingRuleIsUpdated() {
+        ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+        ChillogMetrics metrics = ChillogMetrics.builder()
+                .rule(ChillogMetrics.rule("payment processed", Chillog.Level.INFORMATIONAL).sum("amount")
+                        .sampleOneIn(1000))
+                .rule(ChillogMetrics.rule("payment processed", Chillog.Level.INFORMATIONAL).histogram("latency_ms")
+                        .sampleOneIn(2))
+                .interval(1, TimeUnit.HOURS)
+                .build();
+        ChillogLogger logger = ChillogLogger.builder()
+                .service("fake-service-name")
+                .sink(sink)
+                .metrics(metrics)
+                .build();
+
+        for (int i = 1; i <= 4; i++) {
+            logger.info("payment processed", null, "amount", "1", "latency_ms", String.valueOf(i));
+        }
+
+        // Printed when either rule picks the record: the first by both rules, the third by the second one.
+        Assert.assertEquals(2, sink.records.size());
+
+        metrics.flush();
+        Assert.assertEquals(4, sink.records.size());
+        JSONObject sums = JSON.parseObject(sink.records.get(2));
+        JSONObject histograms = JSON.parseObject(sink.records.get(3));
+        if (!sums.containsKey("_amount_sum")) {
+            JSONObject swap = sums;
+            sums = histograms;
+            histograms = swap;
+        }
+        Assert.assertEquals("4", sums.getString("_count"));
+        Assert.assertEquals("4.0", sums.getString("_amount_sum"));
+        Assert.assertEquals("4", histograms.getString("_count"));
+        Assert.assertEquals("4", histograms.getString("_latency_ms_max"));
+
+        metrics.close();
+    }
+
+    @Test
+    public void testMatchesMapFieldsAndLevel() {
+        ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+        ChillogMetrics metrics = ChillogMetrics.builder()
+                .rule(ChillogMetrics.rule("payment processed", Chillog.Level.INFORMATIONAL).sum("amount"))
+                .build();
+        ChillogLogger logger = ChillogLogger.builder()
+                .service("fake-service-name")
+                .sink(sink)
+                .level(Chillog.Level.ERROR)
+                .metrics(metrics)
+                .build();
+
+        logger.info("payment processed", null, Chillog.map("amount", 3));
+        logger.info("payment processed", null, Chillog.map("amount", 4L));
+        logger.debug("payment processed", null, Chillog.map("amount", 100));
+        metrics.flush();
+
+        Assert.assertEquals(1, sink.records.size());
+        JSONObject summary = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals("2", summary.getString("_count"));
+        Assert.assertEquals("7.0", summary.getString("_amount_sum"));
+
+        metrics.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCannotAttachTwice() {
+        ChillogMetrics metrics = ChillogMetrics.builder().build();
+        try {
+            ChillogLogger.builder().service("fake-service-name").metrics(metrics).build();
+            ChillogLogger.builder().service("fake-service-name").metrics(metrics).build();
+        } finally {
+            metrics.close();
+        }
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 100; i++) {
+            histogram.record(i < 90 ? 3 : 1000);
+        }
+
+        Histogram.Snapshot snapshot = histogram.snapshotAndReset();
+        Assert.assertEquals(100, snapshot.count());
+        Assert.assertEquals(3, snapshot.percentile(50));
+        Assert.assertEquals(1000, snapshot.percentile(99));
+        Assert.assertEquals(1000, snapshot.max);
+        Assert.assertEquals(0, histogram.snapshotAndReset().count());
+    }
+}
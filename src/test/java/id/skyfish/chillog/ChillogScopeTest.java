@@ -0,0 +1,82 @@
+package id.skyfish.chillog;
+
+import com.alibaba.fastjson.JSON;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChillogScopeTest {
+
+    private final ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+
+    private final ChillogLogger logger = ChillogLogger.builder()
+            .service("fake-service-name")
+            .sink(sink)
+            .level(Chillog.Level.NOTICE)
+            .build();
+
+    @Test
+    @SuppressWarnings("try")
+    public void testBufferedRecordsAreDiscardedOnCleanClose() {
+        try (ChillogScope ignored = ChillogScope.open()) {
+            logger.debug("debug trail");
+            logger.info("info trail", null, "key", "value");
+            logger.notice("passes through");
+        }
+
+        Assert.assertEquals(1, sink.records.size());
+        Assert.assertEquals("passes through", JSON.parseObject(sink.records.get(0)).getString("short_message"));
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    public void testBufferedRecordsArePrintedBeforeError() {
+        try (ChillogScope ignored = ChillogScope.open()) {
+            logger.debug("first");
+            logger.info("second", null, "key", "value");
+            logger.error("failure");
+        }
+
+        Assert.assertEquals(3, sink.records.size());
+        Assert.assertEquals("first", JSON.parseObject(sink.records.get(0)).getString("short_message"));
+        Assert.assertEquals("value", JSON.parseObject(sink.records.get(1)).getString("_key"));
+        Assert.assertEquals("failure", JSON.parseObject(sink.records.get(2)).getString("short_message"));
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    public void testRingKeepsMostRecentRecords() {
+        try (ChillogScope ignored = ChillogScope.open(2)) {
+            logger.debug("first");
+            logger.debug("second");
+            logger.debug("third");
+            logger.critical("failure");
+        }
+
+        Assert.assertEquals(3, sink.records.size());
+        Assert.assertEquals("second", JSON.parseObject(sink.records.get(0)).getString("short_message"));
+        Assert.assertEquals("third", JSON.parseObject(sink.records.get(1)).getString("short_message"));
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    public void testNestedScopeJoinsOuterScope() {
+        try (ChillogScope ignored = ChillogScope.open()) {
+            try (ChillogScope inner = ChillogScope.open()) {
+                logger.debug("inner");
+            }
+            logger.error("failure");
+        }
+
+        Assert.assertEquals(2, sink.records.size());
+        Assert.assertEquals("inner", JSON.parseObject(sink.records.get(0)).getString("short_message"));
+    }
+
+    @Test
+    public void testNoBufferingOutsideScope() {
+        logger.debug("below threshold");
+        logger.error("failure");
+
+        Assert.assertEquals(1, sink.records.size());
+        Assert.assertNull(ChillogScope.current());
+    }
+}
@@ -0,0 +1,102 @@
+package id.skyfish.chillog;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class ChillogTemplateTest {
+
+    private final ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+
+    private final ChillogLogger logger = ChillogLogger.builder()
+            .service("fake-service-name")
+            .sink(sink)
+            .level(Chillog.Level.NOTICE)
+            .build();
+
+    @Test
+    public void testFormat() {
+        ChillogTemplate template = ChillogTemplate.of("user {} paid {} IDR");
+
+        Assert.assertEquals(2, template.placeholderCount());
+        Assert.assertEquals("user 42 paid 1500 IDR", template.format(42, 1500L));
+        Assert.assertEquals("user 42 paid {} IDR", template.format(42));
+        Assert.assertEquals("user 42 paid null IDR", template.format(42, null, "extra"));
+    }
+
+    @Test
+    public void testTemplatesAreCached() {
+        Assert.assertSame(Chillog.template("cached {}"), Chillog.template("cached {}"));
+        Assert.assertEquals("cached {}", Chillog.template("cached {}").pattern());
+    }
+
+    @Test
+    public void testShortMessageIsFormattedInRecord() {
+        logger.notice(Chillog.template("user {} paid {}"), "alice", 1500);
+
+        JSONObject record = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals("user alice paid 1500", record.getString("short_message"));
+        Assert.assertEquals(5, record.getIntValue("level"));
+    }
+
+    @Test
+    public void testSegmentsAndArgumentsAreEscaped() {
+        logger.error(Chillog.template("\"quoted\" {}\n{}"), "back\\slash", "tab\t\u00e9");
+
+        JSONObject record = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals("\"quoted\" back\\slash\ntab\t\u00e9", record.getString("short_message"));
+    }
+
+    @Test
+    public void testDisabledSeverityIsNotFormatted() {
+        Object argument = new Object() {
+            @Override
+            public String toString() {
+                throw new AssertionError("formatted below threshold");
+            }
+        };
+
+        logger.debug(Chillog.template("value {}"), argument);
+
+        Assert.assertTrue(sink.records.isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    public void testScopeDefersFormatting() {
+        try (ChillogScope ignored = ChillogScope.open()) {
+            logger.info(Chillog.template("step {} of {}"), 1, 3);
+            logger.error(Chillog.template("failed at step {}"), 2);
+        }
+
+        Assert.assertEquals(2, sink.records.size());
+        Assert.assertEquals("step 1 of 3", JSON.parseObject(sink.records.get(0)).getString("short_message"));
+        Assert.assertEquals("failed at step 2", JSON.parseObject(sink.records.get(1)).getString("short_message"));
+    }
+
+    @Test
+    public void testMetricsMatchPattern() {
+        ChillogMetrics metrics = ChillogMetrics.builder()
+                .rule(ChillogMetrics.rule("user {} paid", Chillog.Level.NOTICE).sampleOneIn(2))
+                .interval(1, TimeUnit.HOURS)
+                .build();
+        ChillogLogger metered = ChillogLogger.builder()
+                .service("fake-service-name")
+                .sink(sink)
+                .metrics(metrics)
+                .build();
+
+        metered.notice(Chillog.template("user {} paid"), "alice");
+        metered.notice(Chillog.template("user {} paid"), "bob");
+        metrics.close();
+
+        Assert.assertEquals(2, sink.records.size());
+        Assert.assertEquals("user alice paid", JSON.parseObject(sink.records.get(0)).getString("short_message"));
+        JSONObject summary = JSON.parseObject(sink.records.get(1));
+        Assert.assertEquals("user {} paid", summary.getString("_metric"));
+        Assert.assertEquals("2", summary.getString("_count"));
+    }
+}
@@ -350,6 +350,101 @@ public class ChillogTest {
         Assert.assertEquals("value3", map.get("10"));
     }
 
+    @Test
+    public void testCreateMapWithDuplicateKeys() {
+        Map<String, Object> map = Chillog.map("key1", 1, "key2", "something", "key1", 2);
+
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals(2, map.get("key1"));
+        Assert.assertEquals("something", map.get("key2"));
+    }
+
+    @Test
+    public void testCreateMapConvertsEachKeyOnce() {
+        class Counted {
+            int calls;
+
+            @Override
+            public String toString() {
+                calls++;
+                return "counted";
+            }
+        }
+
+        Counted first = new Counted();
+        Counted second = new Counted();
+        Map<String, Object> map = Chillog.map(first, 1, "key", 2, second, 3, "key", 4);
+
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals(3, map.get("counted"));
+        Assert.assertEquals("[counted, key]", map.keySet().toString());
+        Assert.assertEquals(1, first.calls);
+        Assert.assertEquals(1, second.calls);
+    }
+
+    @Test
+    public void testCreateMapCopiesPairs() {
+        Object[] pairs = {"key1", 1, "key2", 2};
+        Map<String, Object> map = Chillog.map(pairs);
+        pairs[0] = "changed";
+        pairs[1] = 10;
+
+        Assert.assertEquals(1, map.get("key1"));
+        Assert.assertNull(map.get("changed"));
+    }
+
+    @Test
+    public void testCreateMapWithManyDuplicateKeys() {
+        Object[] pairs = new Object[200];
+        for (int i = 0; i < 100; i++) {
+            pairs[i * 2] = "key" + i % 7;
+            pairs[i * 2 + 1] = i;
+        }
+        Map<String, Object> map = Chillog.map(pairs);
+
+        Assert.assertEquals(7, map.size());
+        Assert.assertEquals("[key2, key3, key4, key5, key6, key0, key1]", map.keySet().toString());
+        Assert.assertEquals(99, map.get("key1"));
+        Assert.assertEquals(93, map.get("key2"));
+    }
+
+    @Test
+    public void testCreateMapKeepsOrder() {
+        Map<String, Object> map = Chillog.map("c", 1, "a", 2, "b", 3);
+
+        Assert.assertEquals("[c, a, b]", map.keySet().toString());
+    }
+
+    @Test
+    public void testCreateMapIsModifiable() {
+        Map<String, Object> map = Chillog.map("key1", 1);
+        map.put("key2", "added");
+
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals(1, map.get("key1"));
+        Assert.assertEquals("added", map.get("key2"));
+    }
+
+    @Test
+    public void testConvertToPairsDuplicateKeys() {
+        Map<String, Object> pairs = Chillog.convertToMap(new String[]{"key", "first", "key", "second"});
+
+        Assert.assertEquals(1, pairs.size());
+        Assert.assertEquals("second", pairs.get("key"));
+    }
+
+    @Test
+    public void testGenerateJsonStringWithDuplicateKeys() {
+        String logJsonString = Chillog.generateJsonString(
+                "A short message",
+                null,
+                System.currentTimeMillis(),
+                Chillog.Level.ALERT,
+                Chillog.convertToMap(new String[]{"key", "first", "other", "value", "key", "second"}));
+
+        Assert.assertTrue(logJsonString.endsWith(",\"_other\":\"value\",\"_key\":\"second\"}"));
+    }
+
     @Test
     public void testConvertToPairsNullParameter() {
         Map<String, Object> pairs = Chillog.convertToMap(null);
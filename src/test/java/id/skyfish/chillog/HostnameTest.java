@@ -0,0 +1,70 @@
+package id.skyfish.chillog;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class HostnameTest {
+
+    @Test
+    public void testGetDoesNotBlock() {
+        long start = System.nanoTime();
+        String hostname = Hostname.get();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertNotNull(hostname);
+        Assert.assertTrue(elapsedMillis < Hostname.LOOKUP_TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void testHostnameIsEventuallyResolved() {
+        Assert.assertTrue(Hostname.await(Hostname.LOOKUP_TIMEOUT_MILLIS * 2, TimeUnit.MILLISECONDS));
+        Assert.assertNotNull(Hostname.get());
+    }
+
+    @Test
+    public void testEnvironmentComesFirst() {
+        Hostname.Resolution resolution =
+                new Hostname.Resolution(() -> "from-env", () -> "from-kernel", () -> "from-dns");
+
+        Assert.assertTrue(resolution.await(0, TimeUnit.MILLISECONDS));
+        Assert.assertEquals("from-env", resolution.get());
+    }
+
+    @Test
+    public void testKernelIsReadWithoutEnvironment() {
+        Hostname.Resolution resolution = new Hostname.Resolution(() -> null, () -> "from-kernel", () -> "from-dns");
+
+        Assert.assertTrue(resolution.await(0, TimeUnit.MILLISECONDS));
+        Assert.assertEquals("from-kernel", resolution.get());
+    }
+
+    @Test
+    public void testDnsIsLookedUpLast() {
+        CountDownLatch lookedUp = new CountDownLatch(1);
+        Hostname.Resolution resolution = new Hostname.Resolution(() -> null, () -> null, () -> {
+            try {
+                lookedUp.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "from-dns";
+        });
+
+        // The lookup runs in the background, and the caller does not wait for it.
+        Assert.assertEquals("", resolution.get());
+        lookedUp.countDown();
+        Assert.assertTrue(resolution.await(Hostname.LOOKUP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        Assert.assertEquals("from-dns", resolution.get());
+    }
+
+    @Test
+    public void testHostnameIsEmptyWhenEverySourceFails() {
+        Hostname.Resolution resolution = new Hostname.Resolution(() -> null, () -> null, () -> null);
+
+        Assert.assertTrue(resolution.await(Hostname.LOOKUP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        Assert.assertEquals("", resolution.get());
+    }
+}
@@ -0,0 +1,112 @@
+package id.skyfish.chillog;
+
+import com.alibaba.fastjson.JSON;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class JsonWriterTest {
+
+    private static String encode(CharSequence value, boolean direct) {
+        JsonWriter writer = new JsonWriter(8, direct);
+        writer.writeByte((byte) '"');
+        writer.writeEscaped(value);
+        writer.writeByte((byte) '"');
+        return writer.toString();
+    }
+
+    private static String repeat(String value, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void testPlainAsciiIsCopiedAsIs() {
+        String value = repeat("plain ascii 0123456789 ~", 100);
+
+        Assert.assertEquals('"' + value + '"', encode(value, false));
+        Assert.assertEquals('"' + value + '"', encode(value, true));
+        Assert.assertEquals('"' + value + '"', encode(new StringBuilder(value), false));
+    }
+
+    @Test
+    public void testEscapesBetweenPlainRuns() {
+        String value = "a\"b\\c\nd\te\u0001f";
+
+        Assert.assertEquals("\"a\\\"b\\\\c\\nd\\te\\u0001f\"", encode(value, false));
+        Assert.assertEquals("\"a\\\"b\\\\c\\nd\\te\\u0001f\"", encode(value, true));
+    }
+
+    @Test
+    public void testNonAsciiRoundTrips() {
+        String value = repeat("caf\u00e9 \u65e5\u672c \ud83d\ude00 ", 50) + "end";
+
+        Assert.assertEquals(value, JSON.parseObject("{\"v\":" + encode(value, false) + "}").getString("v"));
+        Assert.assertEquals(value, JSON.parseObject("{\"v\":" + encode(value, true) + "}").getString("v"));
+    }
+
+    @Test
+    public void testLimitedValueIsCut() {
+        JsonWriter writer = new JsonWriter(8);
+        writer.writeString("abcdef", 4);
+        Assert.assertEquals("\"abcd\"", writer.toString());
+        Assert.assertTrue(writer.truncated);
+
+        writer.reset();
+        writer.writeString("abcd", 4);
+        writer.writeEscaped("not limited");
+        Assert.assertEquals("\"abcd\"not limited", writer.toString());
+        Assert.assertFalse(writer.truncated);
+    }
+
+    @Test
+    public void testLimitSpansParts() {
+        JsonWriter writer = new JsonWriter(8);
+        writer.limitValue(5);
+        writer.writeEscaped("abc");
+        writer.writeEscaped("def");
+        writer.writeEscaped("ghi");
+        writer.endValue();
+
+        Assert.assertEquals("abcde", writer.toString());
+        Assert.assertTrue(writer.truncated);
+    }
+
+    @Test
+    public void testLimitDoesNotSplitSurrogatePair() {
+        JsonWriter writer = new JsonWriter(8);
+        writer.writeString("ab\ud83d\ude00", 3);
+
+        Assert.assertEquals("\"ab\"", writer.toString());
+    }
+
+    @Test
+    public void testSizeLimitDoesNotSplitEscapesOrCharacters() {
+        for (int maxSize = 2; maxSize <= 12; maxSize++) {
+            JsonWriter writer = new JsonWriter(8);
+            writer.writeString("a\"\u00e9\ud83d\ude00b", 100, maxSize);
+
+            String encoded = writer.toString();
+            Assert.assertTrue(writer.size() <= maxSize);
+            Assert.assertTrue("\"a\\\"\u00e9\ud83d\ude00b\"".startsWith(encoded.substring(0, encoded.length() - 1)));
+            Assert.assertEquals(maxSize < 12, writer.truncated);
+        }
+    }
+
+    @Test
+    public void testUnpairedSurrogateIsReplaced() {
+        Assert.assertEquals("\"a?b\"", encode("a\ud83db", false));
+    }
+
+    @Test
+    public void testOutputIsUtf8() {
+        JsonWriter writer = new JsonWriter(4);
+        writer.writeEscaped("\u00e9x");
+
+        Assert.assertArrayEquals("\u00e9x".getBytes(StandardCharsets.UTF_8), writer.toByteArray());
+    }
+}
@@ -0,0 +1,173 @@
+package id.skyfish.chillog;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ObjectFieldsTest {
+
+    private final ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+
+    private final ChillogLogger logger = ChillogLogger.builder()
+            .service("fake-service-name")
+            .sink(sink)
+            .build();
+
+    @ChillogFields
+    public static class User {
+        public long getId() {
+            return 42;
+        }
+
+        public String getName() {
+            return "Alice \"A\"";
+        }
+
+        public boolean isActive() {
+            return true;
+        }
+
+        public double getBalance() {
+            return 12.5;
+        }
+
+        public Address getAddress() {
+            return new Address();
+        }
+
+        public String getNickname() {
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            throw new AssertionError("toString() should not be called");
+        }
+    }
+
+    @ChillogFields
+    public static class Address {
+        public String getCity() {
+            return "Jakarta";
+        }
+
+        public int getZip() {
+            return 12345;
+        }
+    }
+
+    public static class Admin extends User {
+        public int getLevel() {
+            return 3;
+        }
+    }
+
+    public interface HasId<T> {
+        T getId();
+    }
+
+    @ChillogFields
+    public static class Account implements HasId<String> {
+        @Override
+        public String getId() {
+            return "u1";
+        }
+    }
+
+    public static class Registered {
+        public String getName() {
+            return "registered";
+        }
+
+        public String getBroken() {
+            throw new IllegalStateException("broken getter");
+        }
+    }
+
+    public static class Unregistered {
+        public String getName() {
+            return "hidden";
+        }
+
+        @Override
+        public String toString() {
+            return "unregistered";
+        }
+    }
+
+    @Test
+    public void testAnnotatedObjectIsFlattened() {
+        logger.info("user logged in", null, Chillog.map("user", new User()));
+
+        JSONObject record = JSON.parseObject(sink.records.get(0));
+        Assert.assertFalse(record.containsKey("_user"));
+        Assert.assertEquals("42", record.getString("_user.id"));
+        Assert.assertEquals("Alice \"A\"", record.getString("_user.name"));
+        Assert.assertEquals("true", record.getString("_user.active"));
+        Assert.assertEquals("12.5", record.getString("_user.balance"));
+        Assert.assertEquals("NULL", record.getString("_user.nickname"));
+        Assert.assertEquals("Jakarta", record.getString("_user.address.city"));
+        Assert.assertEquals("12345", record.getString("_user.address.zip"));
+    }
+
+    @Test
+    public void testAnnotationIsInherited() {
+        logger.info("admin logged in", null, Chillog.map("admin", new Admin()));
+
+        JSONObject record = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals("3", record.getString("_admin.level"));
+        Assert.assertEquals("42", record.getString("_admin.id"));
+    }
+
+    @Test
+    public void testRegisteredClassIsFlattenedAndFailingGetterIsSkipped() {
+        Assert.assertNull(ObjectFields.of(Registered.class));
+
+        Chillog.registerFields(Registered.class);
+        logger.info("registered", null, Chillog.map("value", new Registered()));
+
+        JSONObject record = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals("registered", record.getString("_value.name"));
+        Assert.assertFalse(record.containsKey("_value.broken"));
+    }
+
+    @Test
+    public void testOtherObjectsUseToString() {
+        logger.info("plain", null, Chillog.map("value", new Unregistered()));
+
+        JSONObject record = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals("unregistered", record.getString("_value"));
+        Assert.assertFalse(record.containsKey("_value.name"));
+    }
+
+    @Test
+    public void testFixedFieldTakesPrecedenceOverProperty() {
+        ChillogLogger fixed = ChillogLogger.builder()
+                .service("fake-service-name")
+                .sink(sink)
+                .field("user.name", "fixed")
+                .build();
+
+        fixed.info("user logged in", null, Chillog.map("user", new User()));
+
+        JSONObject record = JSON.parseObject(sink.records.get(0));
+        Assert.assertEquals("fixed", record.getString("_user.name"));
+        Assert.assertEquals("42", record.getString("_user.id"));
+    }
+
+    @Test
+    public void testGettersAreCachedPerClass() {
+        Assert.assertSame(ObjectFields.of(User.class), ObjectFields.of(User.class));
+    }
+
+    @Test
+    public void testGetterOfGenericInterfaceIsWrittenOnce() {
+        logger.info("account opened", null, Chillog.map("account", new Account()));
+
+        String record = sink.records.get(0);
+        Assert.assertEquals(record.indexOf("\"_account.id\""), record.lastIndexOf("\"_account.id\""));
+        Assert.assertEquals("u1", JSON.parseObject(record).getString("_account.id"));
+        Assert.assertEquals(1, ObjectFields.of(Account.class).size());
+    }
+}
@@ -0,0 +1,230 @@
+package id.skyfish.chillog;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+public class RecordBatchTest {
+
+    private final ChillogLoggerTest.RecordingSink sink = new ChillogLoggerTest.RecordingSink();
+
+    private final ChillogLogger logger = ChillogLogger.builder()
+            .service("fake-service-name")
+            .sink(sink)
+            .level(Chillog.Level.INFORMATIONAL)
+            .build();
+
+    /**
+     * Splits the writes received by the sink into records.
+     */
+    private List<JSONObject> records() {
+        List<JSONObject> records = new ArrayList<>();
+        for (String write : sink.records) {
+            Assert.assertTrue(write.endsWith("\n"));
+            for (String line : write.split("\n")) {
+                records.add(JSON.parseObject(line));
+            }
+        }
+        return records;
+    }
+
+    @Test
+    public void testRunsOfSameLevelAreWrittenTogether() {
+        logger.logAll(Arrays.asList(
+                ChillogEvent.of(Chillog.Level.INFORMATIONAL, "first"),
+                ChillogEvent.of(Chillog.Level.INFORMATIONAL, "second", null, "item", "2"),
+                ChillogEvent.of(Chillog.Level.DEBUG, "below threshold"),
+                ChillogEvent.of(Chillog.Level.INFORMATIONAL, "third", null, Chillog.map("item", 3)),
+                null,
+                ChillogEvent.of(Chillog.Level.ERROR, ChillogTemplate.of("item {} failed"), 4),
+                ChillogEvent.of(Chillog.Level.INFORMATIONAL, "fifth")));
+
+        Assert.assertEquals(Arrays.asList(Chillog.Level.INFORMATIONAL, Chillog.Level.ERROR,
+                Chillog.Level.INFORMATIONAL), sink.levels);
+
+        List<JSONObject> records = records();
+        Assert.assertEquals(5, records.size());
+        Assert.assertEquals("first", records.get(0).getString("short_message"));
+        Assert.assertEquals("2", records.get(1).getString("_item"));
+        Assert.assertEquals("3", records.get(2).getString("_item"));
+        Assert.assertEquals("item 4 failed", records.get(3).getString("short_message"));
+        Assert.assertEquals(3, records.get(3).getIntValue("level"));
+        Assert.assertEquals("fifth", records.get(4).getString("short_message"));
+        for (JSONObject record : records) {
+            Assert.assertEquals(records.get(0).getLongValue("timestamp"), record.getLongValue("timestamp"));
+        }
+    }
+
+    @Test
+    public void testLargeBatchKeepsOrder() {
+        List<ChillogEvent> events = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            events.add(ChillogEvent.of(Chillog.Level.INFORMATIONAL, "item processed", null, "sequence",
+                    String.valueOf(i)));
+        }
+
+        logger.logAll(events);
+
+        List<JSONObject> records = records();
+        Assert.assertEquals(20_000, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            Assert.assertEquals(i, records.get(i).getIntValue("_sequence"));
+        }
+        for (String write : sink.records) {
+            Assert.assertTrue(write.length() < 2 * RecordBatch.MAX_RUN_BYTES);
+        }
+    }
+
+    @Test
+    public void testLargeBatchIsWrittenWhileEncoding() {
+        CountDownLatch firstWrite = new CountDownLatch(1);
+        ChillogLogger gated = ChillogLogger.builder()
+                .service("fake-service-name")
+                .sink(new ChillogLoggerTest.RecordingSink() {
+                    @Override
+                    public synchronized void write(Chillog.Level level, ByteBuffer record) {
+                        super.write(level, record);
+                        firstWrite.countDown();
+                    }
+                })
+                .build();
+
+        // Large enough to be encoded in parallel. The last event is only encoded once the first chunks are written,
+        // or fails the batch.
+        int size = (ChillogLogger.PARALLEL_CHUNKS_AHEAD + 3) * ChillogLogger.PARALLEL_CHUNK_SIZE;
+        List<ChillogEvent> events = new ArrayList<>();
+        for (int i = 0; i < size - 1; i++) {
+            events.add(ChillogEvent.of(Chillog.Level.INFORMATIONAL, "item processed"));
+        }
+        Object last = new Object() {
+            @Override
+            public String toString() {
+                try {
+                    Assert.assertTrue(firstWrite.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                return "last";
+            }
+        };
+        events.add(ChillogEvent.of(Chillog.Level.INFORMATIONAL, ChillogTemplate.of("item {}"), last));
+
+        gated.logAll(events);
+    }
+
+    @Test
+    public void testLargeBatchStopsEncodingOnFailure() throws InterruptedException {
+        AtomicInteger encoded = new AtomicInteger();
+        CountDownLatch failed = new CountDownLatch(1);
+        Object counted = new Object() {
+            @Override
+            public String toString() {
+                encoded.incrementAndGet();
+                try {
+                    // Encoded before the batch failed: continues once it has.
+                    Assert.assertTrue(failed.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                return "value";
+            }
+        };
+        Object broken = new Object() {
+            @Override
+            public String toString() {
+                throw new IllegalStateException("broken value");
+            }
+        };
+
+        // Large enough to be encoded in parallel.
+        int size = (ChillogLogger.PARALLEL_CHUNKS_AHEAD + 3) * ChillogLogger.PARALLEL_CHUNK_SIZE;
+        List<ChillogEvent> events = new ArrayList<>();
+        events.add(ChillogEvent.of(Chillog.Level.INFORMATIONAL, ChillogTemplate.of("item {}"), broken));
+        for (int i = 1; i < size; i++) {
+            events.add(ChillogEvent.of(Chillog.Level.INFORMATIONAL, ChillogTemplate.of("item {}"), counted));
+        }
+
+        try {
+            logger.logAll(events);
+            Assert.fail("the batch should have failed");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("broken value", e.getMessage());
+        }
+        failed.countDown();
+
+        // Until the chunks still running are done.
+        int previous;
+        do {
+            previous = encoded.get();
+            Thread.sleep(200);
+        } while (encoded.get() != previous);
+
+        // The first event of each chunk started along with the failing one. Without stopping, those chunks would be
+        // encoded in full.
+        Assert.assertTrue("encoded " + previous + " events", previous <= ChillogLogger.PARALLEL_CHUNKS_AHEAD);
+        Assert.assertTrue(sink.records.isEmpty());
+    }
+
+    @Test
+    public void testLargeBatchWritesChunksBeforeFailure() {
+        Object broken = new Object() {
+            @Override
+            public String toString() {
+                throw new IllegalStateException("broken value");
+            }
+        };
+
+        // The second chunk fails, likely before the first one is encoded.
+        int size = (ChillogLogger.PARALLEL_CHUNKS_AHEAD + 3) * ChillogLogger.PARALLEL_CHUNK_SIZE;
+        List<ChillogEvent> events = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            events.add(i == ChillogLogger.PARALLEL_CHUNK_SIZE
+                    ? ChillogEvent.of(Chillog.Level.INFORMATIONAL, ChillogTemplate.of("item {}"), broken)
+                    : ChillogEvent.of(Chillog.Level.INFORMATIONAL, "item processed", null, "sequence",
+                    String.valueOf(i)));
+        }
+
+        try {
+            logger.logAll(events);
+            Assert.fail("the batch should have failed");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("broken value", e.getMessage());
+        }
+
+        List<JSONObject> records = records();
+        Assert.assertEquals(ChillogLogger.PARALLEL_CHUNK_SIZE, records.size());
+        Assert.assertEquals(ChillogLogger.PARALLEL_CHUNK_SIZE - 1,
+                records.get(records.size() - 1).getIntValue("_sequence"));
+    }
+
+    @Test
+    public void testStreamIsWrittenInBoundedRuns() {
+        logger.logAll(IntStream.range(0, 5_000).mapToObj(i ->
+                ChillogEvent.of(Chillog.Level.INFORMATIONAL, "item processed", null, "sequence", String.valueOf(i))));
+
+        List<JSONObject> records = records();
+        Assert.assertEquals(5_000, records.size());
+        Assert.assertEquals(4_999, records.get(4_999).getIntValue("_sequence"));
+        Assert.assertTrue(sink.records.size() > 1);
+        for (String write : sink.records) {
+            Assert.assertTrue(write.length() < 2 * RecordBatch.MAX_RUN_BYTES);
+        }
+    }
+
+    @Test
+    public void testEmptyBatchWritesNothing() {
+        logger.logAll(Arrays.asList(ChillogEvent.of(Chillog.Level.DEBUG, "below threshold")));
+
+        Assert.assertTrue(sink.records.isEmpty());
+    }
+}
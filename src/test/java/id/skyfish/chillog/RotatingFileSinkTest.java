@@ -0,0 +1,181 @@
+package id.skyfish.chillog;
+
+import com.alibaba.fastjson.JSON;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+public class RotatingFileSinkTest {
+
+    private final Path directory;
+
+    public RotatingFileSinkTest() throws IOException {
+        this.directory = Files.createTempDirectory("chillog");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : files()) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    private List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private static String read(Path file) throws IOException {
+        try (InputStream input = file.toString().endsWith(".gz")
+                ? new GZIPInputStream(Files.newInputStream(file))
+                : Files.newInputStream(file)) {
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void print(RotatingFileSink sink, int count) {
+        ChillogLogger logger = ChillogLogger.builder().service("fake-service-name").sink(sink).build();
+        for (int i = 0; i < count; i++) {
+            logger.info("record", "sequence", String.valueOf(i));
+        }
+    }
+
+    @Test
+    public void testSegmentsAreCompressed() throws IOException {
+        RotatingFileSink sink = RotatingFileSink.builder(directory, "app").maxFileSize(1024).build();
+        print(sink, 100);
+        sink.close();
+
+        List<String> lines = new ArrayList<>();
+        int compressed = 0;
+        for (Path file : files()) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(".log.gz")) {
+                compressed++;
+            } else {
+                Assert.assertEquals("app.log", name);
+            }
+            for (String line : read(file).split("\n")) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+
+        Assert.assertTrue(compressed > 1);
+        Assert.assertEquals(100, lines.size());
+        for (String line : lines) {
+            Assert.assertEquals("record", JSON.parseObject(line).getString("short_message"));
+        }
+        Assert.assertEquals(0, sink.getDroppedRecords());
+    }
+
+    @Test
+    public void testOldestSegmentsAreDeletedBeyondTotalSize() throws IOException {
+        RotatingFileSink sink = RotatingFileSink.builder(directory, "app")
+                .maxFileSize(1024)
+                .compress(false)
+                .maxTotalSize(3 * 1024)
+                .build();
+        print(sink, 200);
+        sink.close();
+
+        long total = 0;
+        for (Path file : files()) {
+            if (!file.getFileName().toString().equals("app.log")) {
+                total += Files.size(file);
+            }
+        }
+        Assert.assertTrue(total <= 3 * 1024);
+    }
+
+    @Test
+    public void testSegmentsOfTheSameMillisecondAreDeletedInRotationOrder() throws IOException {
+        String[] counts = {"", "-1", "-2", "-10"};
+        for (String count : counts) {
+            Files.write(directory.resolve("app.20240101T000000.000" + count + ".log.gz"), new byte[100]);
+        }
+
+        RotatingFileSink sink = RotatingFileSink.builder(directory, "app").maxTotalSize(250).build();
+        sink.close();
+
+        Assert.assertFalse(Files.exists(directory.resolve("app.20240101T000000.000.log.gz")));
+        Assert.assertFalse(Files.exists(directory.resolve("app.20240101T000000.000-1.log.gz")));
+        Assert.assertTrue(Files.exists(directory.resolve("app.20240101T000000.000-2.log.gz")));
+        Assert.assertTrue(Files.exists(directory.resolve("app.20240101T000000.000-10.log.gz")));
+    }
+
+    @Test
+    public void testExpiredSegmentsAreDeleted() throws IOException {
+        Path expired = directory.resolve("app.20000101T000000.000.log.gz");
+        Path recent = directory.resolve("app.20990101T000000.000.log.gz");
+        Path[] unrelated = {
+                directory.resolve("other.20000101T000000.000.log.gz"),
+                directory.resolve("app.log.lock"),
+                directory.resolve("app.log.bak"),
+                directory.resolve("app.20000101T000000.000.log.swp"),
+        };
+        Files.write(expired, new byte[0]);
+        Files.write(recent, new byte[0]);
+        Files.setLastModifiedTime(expired, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2)));
+        for (Path file : unrelated) {
+            Files.write(file, new byte[0]);
+            Files.setLastModifiedTime(file, Files.getLastModifiedTime(expired));
+        }
+
+        RotatingFileSink sink = RotatingFileSink.builder(directory, "app").maxAge(1, TimeUnit.DAYS).build();
+        sink.close();
+
+        Assert.assertFalse(Files.exists(expired));
+        Assert.assertTrue(Files.exists(recent));
+        for (Path file : unrelated) {
+            Assert.assertTrue(file.toString(), Files.exists(file));
+        }
+    }
+
+    @Test
+    public void testFailedRotationDoesNotStopTheSink() throws IOException {
+        RotatingFileSink sink = RotatingFileSink.builder(directory, "app").maxFileSize(1024).compress(false).build();
+        ChillogLogger logger = ChillogLogger.builder().service("fake-service-name").sink(sink).build();
+        logger.info("before");
+
+        // Neither can the active file be renamed, nor can a new one be opened.
+        Files.delete(directory.resolve("app.log"));
+        Files.delete(directory);
+        for (int i = 0; i < 20; i++) {
+            logger.info("lost");
+        }
+
+        Files.createDirectory(directory);
+        logger.info("after");
+        sink.close();
+
+        List<String> lines = Files.readAllLines(directory.resolve("app.log"), StandardCharsets.UTF_8);
+        Assert.assertEquals("after", JSON.parseObject(lines.get(lines.size() - 1)).getString("short_message"));
+    }
+
+    @Test
+    public void testClosedSinkDropsRecords() throws IOException {
+        RotatingFileSink sink = RotatingFileSink.builder(directory, "app").build();
+        sink.close();
+        print(sink, 1);
+
+        Assert.assertEquals(1, sink.getDroppedRecords());
+    }
+}
@@ -0,0 +1,112 @@
+package id.skyfish.chillog;
+
+import com.alibaba.fastjson.JSON;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+public class UnixSocketSinkTest {
+
+    private final Path directory;
+    private final Path socket;
+
+    public UnixSocketSinkTest() throws IOException {
+        this.directory = Files.createTempDirectory("chillog");
+        this.socket = directory.resolve("agent.sock");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(socket);
+        Files.deleteIfExists(directory);
+    }
+
+    private ServerSocketChannel listen() throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        return server;
+    }
+
+    /**
+     * Reads from the connection until the given number of lines has arrived.
+     */
+    private static String[] readLines(SocketChannel connection, int count) throws IOException {
+        StringBuilder received = new StringBuilder();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (received.chars().filter(c -> c == '\n').count() < count) {
+            buffer.clear();
+            if (connection.read(buffer) < 0) {
+                break;
+            }
+            buffer.flip();
+            received.append(StandardCharsets.UTF_8.decode(buffer));
+        }
+        return received.toString().split("\n");
+    }
+
+    @Test
+    public void testRecordsAreSentAsLines() throws IOException {
+        try (ServerSocketChannel server = listen();
+             UnixSocketSink sink = new UnixSocketSink(socket)) {
+            ChillogLogger logger = ChillogLogger.builder().service("fake-service-name").sink(sink).build();
+
+            logger.info("first", null, "key", "value");
+            logger.error("second");
+
+            try (SocketChannel connection = server.accept()) {
+                String[] lines = readLines(connection, 2);
+
+                Assert.assertEquals(2, lines.length);
+                Assert.assertEquals("first", JSON.parseObject(lines[0]).getString("short_message"));
+                Assert.assertEquals("value", JSON.parseObject(lines[0]).getString("_key"));
+                Assert.assertEquals("second", JSON.parseObject(lines[1]).getString("short_message"));
+            }
+            Assert.assertEquals(0, sink.getDroppedRecords());
+        }
+    }
+
+    @Test
+    public void testRecordsAreBufferedUntilAgentListens() throws IOException {
+        try (UnixSocketSink sink = new UnixSocketSink(socket, 4096, 0, TimeUnit.MILLISECONDS)) {
+            ChillogLogger logger = ChillogLogger.builder().service("fake-service-name").sink(sink).build();
+
+            logger.info("before agent");
+
+            try (ServerSocketChannel server = listen()) {
+                logger.info("after agent");
+
+                try (SocketChannel connection = server.accept()) {
+                    String[] lines = readLines(connection, 2);
+
+                    Assert.assertEquals("before agent", JSON.parseObject(lines[0]).getString("short_message"));
+                    Assert.assertEquals("after agent", JSON.parseObject(lines[1]).getString("short_message"));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBufferIsBounded() throws IOException {
+        try (UnixSocketSink sink = new UnixSocketSink(socket, 512, 1, TimeUnit.HOURS)) {
+            ChillogLogger logger = ChillogLogger.builder().service("fake-service-name").sink(sink).build();
+
+            for (int i = 0; i < 10; i++) {
+                logger.info("no agent", null, "index", String.valueOf(i));
+            }
+
+            Assert.assertTrue(sink.getDroppedRecords() > 0);
+            Assert.assertTrue(sink.getDroppedRecords() < 10);
+        }
+    }
+}